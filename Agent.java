@@ -1,61 +1,96 @@
 import java.util.*;
+import java.util.random.*;
 
 public class Agent {
-    private static double INITIAL_Q = 0;
+    public static double INITIAL_Q = 0;
     private static double EPSILON = 0.1;
-    private static double alpha;
-    private static double gamma;
-    private static int NEIGHBOR_COUNT;
-    /* double qValue = q.get(x).get(y).get(moveCode)
-     * q.get(x).get(y) will only exist if we've been there. When we get to a 
+    //Per-agent so that several agents can learn in one JVM at once
+    private double alpha;
+    private double gamma;
+    private int neighborCount;
+    /* double qValue = q.get(state, moveCode), where state = x*size + y.
+     * A state will only exist in q if we've been there. When we get to a 
      * place, we must ensure that it exists in q before doing anything.
      */
-    private Map<Integer, Map<Integer, Map<Integer, Double>>> q;
-    private int[] location;
+    private QTable q;
+    private int size;
+    private int state;
+    private long ponyMask; //Ponies left, for tables that track them
     private int lastMove;
+    //The last Q update, for anyone watching for convergence
+    private int lastUpdatedState;
+    private int lastUpdatedMove;
+    private double lastDelta;
+    //Replays remembered moves between real ones, if set
+    private Planner planner;
+    //Backs rewards up over several moves instead of one, if set
+    private Backup backup;
+    //Replays remembered moves in batches between real ones, if set
+    private ReplayBuffer replay;
     
     /**
      * Initializes a new Q Learning agent. Needs to know its start location 
      * since it will be starting at a new spot each time it wins/dies. 
      * @param loc The agent's starting location
+     * @param size comes from the environment; it is the width of the board,
+     * used to turn locations into Q table states.
      * @param alpha The agent's learning rate
      * @param gamma The agent's dicount factor
-     * @param moveCount comes from the environment; it is the number of 
+     * @param q The Q table to learn into. Its move count is the number of 
      * directions the agent can try to move on this board.
      */
-    public Agent(int[] loc, double alpha, double gamma, int moveCount) {
-        this.q = new HashMap<>();
-        this.location = loc;
+    public Agent(int[] loc, int size, double alpha, double gamma, QTable q) {
+        this.q = q;
+        this.size = size;
         this.alpha = alpha;
         this.gamma = gamma;
-        this.NEIGHBOR_COUNT = moveCount;
+        this.neighborCount = q.moveCount();
         this.lastMove = -1;
-        ensureExists(loc[0], loc[1]);
+        moveAgent(loc);
     }
     
     /**
      * Agent selects a move based on the Q Learning algorithm.
-     * @param r The random object to use when selection needs randomness
+     * @param r The random generator to use when selection needs randomness
      * @param type The type of move selection to use. Options:
      *               random:  Completely random selection
      *               greedy:  Picks best Q moves. For exploiting learned policy
      *               explore: Picks in a way that facilitates exploration.
      * @return the move code for the move selected
      */
-    public int selectMove(Random r, String type) {
+    public int selectMove(RandomGenerator r, String type) {
+        return selectMove(r, type, (1<<neighborCount)-1);
+    }
+    
+    /**
+     * Agent selects a move like selectMove(r, type), but only among the 
+     * moves the environment says are legal from here, so no move is wasted
+     * on a wall. Illegal moves are invalidated in the Q table first, as if 
+     * the agent had already bumped into them.
+     * @param r The random generator to use when selection needs randomness
+     * @param type The type of move selection to use, as for selectMove
+     * @param legal The legal moves from the agent's cell, bit i for move i
+     * @return the move code for the move selected
+     */
+    public int selectMove(RandomGenerator r, String type, 
+                        int legal) {
+        legal &= (1<<neighborCount)-1;
+        if (legal==0) legal = (1<<neighborCount)-1; //Boxed in, so anything
+        forgetIllegal(legal);
         int move = -1;
         switch (type) {
             case "random":
-                move = r.nextInt(NEIGHBOR_COUNT);
+                move = randomSelection(r, legal);
                 break;
             case "greedy":
-                move = greedyAction(r);
+                move = greedyAction(r, legal);
                 break;
             case "explore":
-                move = exploreAction(r);
+                move = exploreAction(r, legal);
                 break;
         }
         this.lastMove = move;
+        if (backup!=null) backup.chose(state, move);
         return move;
     }
     
@@ -73,14 +108,123 @@ public class Agent {
         }
         int reward = (int) fb[0];
         int[] newLoc = (int[]) fb[1];
-        int[] lastLoc = this.location; //store before moving to use in q update
+        int lastState = this.state; //store before moving to use in q update
         moveAgent(newLoc);
-        
-        //Update Q value for move we just made. Equation from textbook (9.1)
-        Map <Integer, Double> lastSpot = q.get(lastLoc[0]).get(lastLoc[1]);
-        double lastMoveQ = lastSpot.get(lastMove);
-        lastMoveQ += alpha*(reward+gamma*maxQ(newLoc)-lastMoveQ);
-        lastSpot.put(lastMove, lastMoveQ);
+        learn(lastState, reward, false);
+    }
+    
+    /**
+     * Agent receives packed feedback from Environment.step(). Same as the 
+     * array version, but nothing is allocated. Assumes the ponies left are 
+     * the same as last time the agent was told.
+     * @param step The packed step result
+     */
+    public void giveFeedback(long step) {
+        giveFeedback(step, this.ponyMask);
+    }
+    
+    /**
+     * Agent receives packed feedback from Environment.step(), along with 
+     * which ponies are left afterwards, for Q tables that tell those apart.
+     * @param step The packed step result
+     * @param ponyMask The environment's pony mask after the step
+     */
+    public void giveFeedback(long step, long ponyMask) {
+        if (!Environment.stepValid(step)) { //The last move hit a wall
+            invalidateLastMove();
+            return;
+        }
+        int lastState = this.state; //store before moving to use in q update
+        this.ponyMask = ponyMask;
+        moveAgent(Environment.stepCell(step));
+        learn(lastState, Environment.stepReward(step), 
+                Environment.stepTerminal(step));
+    }
+    
+    /**
+     * Updates the Q value for the move we just made from lastState, now that
+     * the agent is in its new state. Equation from textbook (9.1)
+     * @param lastState The state the move was made from
+     * @param reward The reward for the move
+     * @param terminal If the move ended the episode. Only replay cares; the
+     * agent's own update looks at the new state's value either way
+     */
+    private void learn(int lastState, int reward, boolean terminal) {
+        double target = reward+gamma*q.maxQ(this.state);
+        //The planner's priority, taken before the update moves the value
+        double tdError = target-q.get(lastState, lastMove);
+        if (backup!=null) {
+            this.lastDelta = backup.learn(lastState, lastMove, reward, state);
+            this.lastUpdatedState = backup.updatedState();
+            this.lastUpdatedMove = backup.updatedMove();
+        } else {
+            this.lastDelta = q.update(lastState, lastMove, target, alpha);
+            this.lastUpdatedState = lastState;
+            this.lastUpdatedMove = lastMove;
+        }
+        if (planner!=null) {
+            planner.observe(lastState, lastMove, reward, this.state, 
+                            tdError);
+            planner.plan();
+        }
+        if (replay!=null) {
+            replay.add(lastState, lastMove, reward, state, terminal);
+            replay.replay();
+        }
+    }
+    
+    /**
+     * Turns on planning: after every real Q update, the planner replays 
+     * moves the agent remembers as extra, simulated updates.
+     * @param planner The planner, built over this agent's Q table
+     */
+    public void setPlanner(Planner planner) {
+        this.planner = planner;
+    }
+    
+    /**
+     * Turns on multi-step backups: each real move is learned from through 
+     * the backup instead of the one-step update.
+     * @param backup The backup, built over this agent's Q table
+     */
+    public void setBackup(Backup backup) {
+        this.backup = backup;
+    }
+    
+    /**
+     * Turns on experience replay: every real move is remembered, and after
+     * each one a batch of remembered moves is replayed.
+     * @param replay The replay buffer, built over this agent's Q table
+     */
+    public void setReplay(ReplayBuffer replay) {
+        this.replay = replay;
+    }
+    
+    /**
+     * Gets the size of the agent's last Q update. Hitting a wall doesn't 
+     * update anything, so it counts as 0.
+     * @return the absolute change to the last updated Q value
+     */
+    public double getLastDelta() {
+        return Math.abs(this.lastDelta);
+    }
+    
+    /**
+     * Determines whether the agent's last Q update changed which moves are 
+     * the best ones from the state it updated, ie whether the greedy policy 
+     * churned there.
+     * @return if the updated move joined or left the state's best moves
+     */
+    public boolean lastUpdateChangedPolicy() {
+        if (lastDelta==0) return false;
+        int s = lastUpdatedState;
+        double newQ = q.get(s, lastUpdatedMove);
+        double oldQ = newQ-lastDelta;
+        double bestOther = Double.NEGATIVE_INFINITY;
+        for (int i=0; i<neighborCount; i++)
+            if (i!=lastUpdatedMove && q.isValid(s, i) && q.get(s, i)>bestOther) 
+                bestOther = q.get(s, i);
+        return (oldQ>=bestOther)!=(newQ>=bestOther);
     }
     
     /**
@@ -89,9 +233,31 @@ public class Agent {
      * @param loc The agent's starting location
      */
     public void startOver(int[] loc) {
+        if (backup!=null) backup.endEpisode();
         moveAgent(loc);
     }
     
+    /**
+     * Puts the burgler in the new state, for environments that report cells
+     * instead of locations.
+     * @param cell The agent's starting cell, x*size + y
+     */
+    public void startOver(int cell) {
+        if (backup!=null) backup.endEpisode();
+        moveAgent(cell);
+    }
+    
+    /**
+     * Puts the burgler in the new cell, with the given ponies left.
+     * @param cell The agent's starting cell, x*size + y
+     * @param ponyMask The environment's pony mask
+     */
+    public void startOver(int cell, long ponyMask) {
+        if (backup!=null) backup.endEpisode();
+        this.ponyMask = ponyMask;
+        moveAgent(cell);
+    }
+    
     
     /**
      * Puts the burgler at the new location. Ensures that q has an entry for 
@@ -99,21 +265,17 @@ public class Agent {
      * @param loc The agent's new location
      */
     private void moveAgent(int[] loc) {
-        this.location = loc;
-        ensureExists(loc[0], loc[1]);
+        moveAgent(loc[0]*size + loc[1]);
     }
     
     /**
-     * Gets the highest Q value among all actions from the given spot.
-     * @param loc the location to check
-     * @return The biggest Q value from loc
+     * Puts the burgler in the new cell. Ensures that q has an entry for the 
+     * state that makes, along with the ponies left.
+     * @param cell The agent's new cell, x*size + y
      */
-    private double maxQ(int[] loc) {
-        Map<Integer, Double> spot = q.get(loc[0]).get(loc[1]);
-        double maxQ = -1;
-        for (Integer i : spot.keySet())
-            if (spot.get(i)>maxQ) maxQ = spot.get(i);
-        return maxQ;
+    private void moveAgent(int cell) {
+        this.state = q.state(cell, ponyMask);
+        q.visit(state);
     }
     
     /**
@@ -121,100 +283,57 @@ public class Agent {
      * be called when the agent gets feedback that it hit a wall.
      */
     private void invalidateLastMove() {
-        Map<Integer, Double> spot = getCurrentSpot();
-        spot.remove(lastMove);
+        this.lastDelta = 0;
+        q.invalidate(state, lastMove);
     }
     
     /**
-     * Returns the move from the agent's current position with the highest Q.
-     * @param r The random object to use
-     * @return the move code for the action selected
+     * Invalidates the moves from the current state that the environment 
+     * says are illegal, if the Q table hasn't already.
+     * @param legal The legal moves, bit i for move i
      */
-    private int greedyAction(Random r) {
-        Map<Integer, Double> moves = getCurrentSpot();
-        Set<Integer> bestMoves = new HashSet<>();
-        double bestQ = 0;
-        for (Integer i : moves.keySet()) {
-            if (moves.get(i) > bestQ) { //if we found a new best Q
-                //set bestQ and restart set of best moves
-                bestQ = moves.get(i);
-                bestMoves = new HashSet<>();
-                bestMoves.add(i);
-            } else if (moves.get(i) == bestQ) //if we found an equal q
-                //add it to the running best moves
-                bestMoves.add(i);
+    private void forgetIllegal(int legal) {
+        int illegal = ~legal&((1<<neighborCount)-1);
+        for (; illegal!=0; illegal &= illegal-1) {
+            int move = Integer.numberOfTrailingZeros(illegal);
+            if (q.isValid(state, move)) q.invalidate(state, move);
         }
-        //Pick a random best move
-        int move = randomSelection(r, bestMoves);
-        //System.out.println("Picking move " + move + " with Q value " + bestQ);
-        return move;
     }
     
     /**
-     * Returns the agent's exploratory move selection. Currently picks a random
-     * action epsilon% of the time. 
-     * @param r The random object to use
+     * Returns the move from the agent's current position with the highest Q.
+     * @param r The random generator to use
+     * @param legal The legal moves, bit i for move i
      * @return the move code for the action selected
      */
-    private int exploreAction(Random r) {
-        if (r.nextDouble()<EPSILON) return randomAction(r);
-        else return greedyAction(r);
+    private int greedyAction(RandomGenerator r, int legal) {
+        int bestMoves = q.bestMoves(state)&legal;
+        if (bestMoves==0) return randomSelection(r, legal); //Nothing valid
+        //Pick a random best move, counting up from the lowest
+        return randomSelection(r, bestMoves);
     }
     
     /**
-     * Returns a random move.
-     * @param r The random object to use
+     * Returns the agent's exploratory move selection. Currently picks a random
+     * action epsilon% of the time. 
+     * @param r The random generator to use
+     * @param legal The legal moves, bit i for move i
      * @return the move code for the action selected
      */
-    private int randomAction(Random r) {
-        return r.nextInt(NEIGHBOR_COUNT);
+    private int exploreAction(RandomGenerator r, int legal) {
+        if (r.nextDouble()<EPSILON) return randomSelection(r, legal);
+        else return greedyAction(r, legal);
     }
     
     /**
      * Returns a random move from the given set of moves
-     * @param r The random object to use
-     * @param moves The set of moves to be selected from
+     * @param r The random generator to use
+     * @param moves The set of moves to be selected from, bit i for move i
      * @return the selection
      */
-    private int randomSelection(Random r, Set<Integer> moves) {
-        int selection = r.nextInt(moves.size());
-        int i=0;
-        for (Integer m : moves) {
-            if (i==selection) return m;
-            i++;
-        }
-        //We should never get here
-        return -1;
-    }
-    
-    /**
-     * Gets the move map for the agent's current location.
-     * @return the move map
-     */
-    private Map<Integer, Double> getCurrentSpot() {
-        return q.get(location[0]).get(location[1]);
-    }
-    
-    /**
-     * Makes sure that q has an entry for the spot (x,y). If not, it creates
-     * one and initializes the q value for each move from there.
-     * @param x The spot's x coordinate
-     * @param y The spot's y coordinate
-     */
-    private void ensureExists(int x, int y) {
-        //Get the <int, doub> map of the spot (x,y). Init what's needed
-        Map<Integer, Map<Integer, Double>> col = q.get(x);
-        if (col==null) {
-            q.put(x, new HashMap<>());
-            col = q.get(x);
-        }
-        Map<Integer, Double> spot = col.get(y);
-        if (spot==null) {
-            col.put(y, new HashMap<>());
-            spot = col.get(y);
-            //If we get here, the spot was new. Init its actions' Q values.
-            for (int i=0; i<NEIGHBOR_COUNT; i++)
-                spot.put(i, INITIAL_Q);
-        }
+    private int randomSelection(RandomGenerator r, int moves) {
+        int selection = r.nextInt(Integer.bitCount(moves));
+        for (int i=0; i<selection; i++) moves &= moves-1; //Drop the lowest
+        return Integer.numberOfTrailingZeros(moves);
     }
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+import java.lang.invoke.*;
+import java.util.*;
+
+/**
+ * A dense QTable that many agents on many threads can learn into at once,
+ * Hogwild style: nothing is locked. Q values are stored as the raw long bits
+ * of each double and updated with compare-and-set, so concurrent updates to
+ * the same move are never lost, and invalidations are atomic bit clears.
+ * Every state starts initialized, since racing threads would otherwise have
+ * to agree on who initializes a state first; the values are the same ones a
+ * lazily initialized table would hand out on the first visit.
+ */
+public class AtomicQTable implements QTable {
+    private static final VarHandle Q =
+        MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle VALID =
+        MethodHandles.arrayElementVarHandle(int[].class);
+
+    private int moveCount;
+    private long[] q; //Double.doubleToRawLongBits of each Q value
+    private int[] validMoves; //bit i is set if move i is still valid
+
+    /**
+     * Initializes a shared Q table big enough for every cell on a board.
+     * @param size The width of the (square) board
+     * @param moveCount The number of moves each state has, at most 32
+     * @param initialQ The Q value every move starts with
+     */
+    public AtomicQTable(int size, int moveCount, double initialQ) {
+        if (moveCount>Integer.SIZE)
+            throw new IllegalArgumentException("Atomic Q tables support at " +
+                        "most " + Integer.SIZE + " moves per state");
+        int states = size*size;
+        this.q = new long[states*moveCount];
+        this.validMoves = new int[states];
+        Arrays.fill(q, Double.doubleToRawLongBits(initialQ));
+        Arrays.fill(validMoves, (int)((1L<<moveCount)-1));
+        this.moveCount = moveCount;
+    }
+
+    @Override
+    public void ensureExists(int state) {
+        //Every state already exists
+    }
+
+    @Override
+    public double get(int state, int move) {
+        return Double.longBitsToDouble(
+            (long) Q.getOpaque(q, state*moveCount+move));
+    }
+
+    @Override
+    public void set(int state, int move, double value) {
+        Q.setOpaque(q, state*moveCount+move, Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public double update(int state, int move, double target, double alpha) {
+        int i = state*moveCount+move;
+        long bits, newBits;
+        double delta;
+        do {
+            bits = (long) Q.getOpaque(q, i);
+            double value = Double.longBitsToDouble(bits);
+            delta = alpha*(target-value);
+            newBits = Double.doubleToRawLongBits(value+delta);
+        } while (!Q.weakCompareAndSetPlain(q, i, bits, newBits));
+        return delta;
+    }
+
+    @Override
+    public boolean isValid(int state, int move) {
+        return ((int) VALID.getOpaque(validMoves, state)&(1<<move))!=0;
+    }
+
+    @Override
+    public void invalidate(int state, int move) {
+        VALID.getAndBitwiseAnd(validMoves, state, ~(1<<move));
+    }
+
+    @Override
+    public int stateCount() {
+        return validMoves.length;
+    }
+
+    @Override
+    public int moveCount() {
+        return this.moveCount;
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * A multi-step way for an Agent to back rewards up into its Q table, in 
+ * place of the one-step update, so a reward reaches the states leading to 
+ * it in fewer moves. The agent tells it about each move it picks, each real
+ * move's reward and resulting state, and each time it starts over.
+ * States are the Q table's states, moves its move codes.
+ */
+public interface Backup {
+
+    /**
+     * Tells the backup which move the agent picked, before it's made. 
+     * Backups that stop crediting earlier moves once the agent explores 
+     * override this.
+     * @param state The state the move is made from
+     * @param move The move code
+     */
+    default void chose(int state, int move) {
+    }
+
+    /**
+     * Backs up a real move that has just been made.
+     * @param lastState The state the move was made from
+     * @param move The move code
+     * @param reward The reward for the move
+     * @param state The resulting state, already in the Q table
+     * @return the change made to the Q value of the move updated()
+     * reports, or 0 if nothing was updated yet
+     */
+    double learn(int lastState, int move, int reward, int state);
+
+    /**
+     * Gets the state whose Q value the last learn() reported the change to.
+     * @return the state, or -1 if none
+     */
+    int updatedState();
+
+    /**
+     * Gets the move whose Q value the last learn() reported the change to.
+     * @return the move code, or -1 if none
+     */
+    int updatedMove();
+
+    /**
+     * Finishes off the episode, eg updating moves still waiting on later 
+     * rewards, and forgets it. To be called before the agent starts over.
+     */
+    void endEpisode();
+}
@@ -0,0 +1,229 @@
+import java.util.*;
+import java.util.random.*;
+
+/**
+ * Many independent copies of the same burgler world, stepped together. All
+ * of the changing state lives in primitive arrays indexed by slot instead of
+ * in one Environment object per copy: each slot's burgler cell, score and a
+ * bitmask of its remaining ponies. A slot that reaches a terminal state is
+ * reset to a new random start right away, so every slot always has a move
+ * to make. Moves, rewards and terminal states follow Environment's makeMove,
+ * processScore and hasTerm exactly.
+ */
+public class BatchEnvironment {
+    private Board board;
+    private int size;
+    private int slots;
+    private int initialPonyCount;
+    private byte[] occupancy; //The board's starting flags, for every slot
+    private int[] freeCells; //Cells a burgler can start in
+    //Ids of the ponies in cell c are ponyIds[ponyStart[c]..ponyStart[c+1])
+    private int[] ponyStart;
+    private int[] ponyIds;
+    private RandomGenerator r;
+
+    //Changing state of each slot
+    private int[] burglers; //cell index, x*size + y
+    private int[] scores;
+    private int[] ponyCounts;
+    private int ponyWords; //longs per slot in ponies
+    private long[] ponies; //bit i of a slot's words is set if pony i remains
+    private long[] results; //Environment.step() style result of each slot
+
+    /**
+     * Builds a batch of fresh copies of a board, each with its burgler at a
+     * random unoccupied spot. Large boards aren't supported.
+     * @param board The board every slot plays on
+     * @param slots The number of copies, at least 1
+     * @param r The random generator to use to place burglers
+     */
+    public BatchEnvironment(Board board, int slots, RandomGenerator r) {
+        if (board.isLarge())
+            throw new IllegalArgumentException("Batches don't support " +
+                        "large boards");
+        if (slots<1)
+            throw new IllegalArgumentException("A batch needs at least " +
+                        "one slot");
+        this.board = board;
+        this.size = board.getSize();
+        this.slots = slots;
+        this.r = r;
+        this.initialPonyCount = board.getInitialPonyCount();
+        this.occupancy = new byte[size*size];
+        board.copyOccupancy(occupancy);
+        this.initFreeCells();
+        this.initPonyIndex();
+
+        this.burglers = new int[slots];
+        this.scores = new int[slots];
+        this.ponyCounts = new int[slots];
+        this.ponyWords = (board.getPonyCount()+63)/64;
+        this.ponies = new long[slots*ponyWords];
+        this.results = new long[slots];
+        for (int k=0; k<slots; k++) reset(k);
+    }
+
+    /**
+     * Makes one move in every slot. A slot whose move ends its episode is
+     * reset straight away; its result still describes the move that ended
+     * it, and getBurglerCell() gives the new start.
+     * @param actions The move for each slot, 0-7 clockwise from north
+     * @return the packed result of each slot's move, readable with
+     * Environment.stepReward() and friends. The array is reused by the next
+     * call.
+     */
+    public long[] stepAll(int[] actions) {
+        for (int k=0; k<slots; k++) {
+            int cell = burglers[k];
+            int next = board.nextCell(cell, actions[k]);
+            if (next<0) { //Hit a wall, so nothing happens
+                results[k] = Environment.packStep(0, cell, false, false);
+                continue;
+            }
+            burglers[k] = next;
+            int reward = processScore(k, next);
+            boolean terminal = (occupancy[next]&
+                                (Environment.ESCAPE|Environment.TROLL))!=0;
+            results[k] = Environment.packStep(reward, next, terminal, true);
+            if (terminal) reset(k);
+        }
+        return results;
+    }
+
+    /**
+     * Puts a slot back to the board's starting state: all ponies back, score
+     * zeroed and the burgler at a new random unoccupied spot.
+     * @param k The slot
+     */
+    public void reset(int k) {
+        Arrays.fill(ponies, k*ponyWords, (k+1)*ponyWords, 0);
+        int count = board.getPonyCount();
+        for (int i=0; i<count; i++)
+            ponies[k*ponyWords+(i>>>6)] |= 1L<<i;
+        ponyCounts[k] = count;
+        scores[k] = 0;
+        burglers[k] = freeCells[r.nextInt(freeCells.length)];
+    }
+
+    /**
+     * Gets the board every slot plays on.
+     * @return the board
+     */
+    public Board getBoard() {
+        return this.board;
+    }
+
+    /**
+     * Gets the number of slots.
+     * @return the slot count
+     */
+    public int getSlots() {
+        return this.slots;
+    }
+
+    /**
+     * Gets a slot's current burgler cell, x*size + y.
+     * @param k The slot
+     * @return the burgler's cell
+     */
+    public int getBurglerCell(int k) {
+        return burglers[k];
+    }
+
+    /**
+     * Gets the moves a slot's burgler can make from where it is.
+     * @param k The slot
+     * @return bit i is set if move i is valid
+     */
+    public int getValidMoveMask(int k) {
+        return board.validMoveMask(burglers[k]);
+    }
+
+    /**
+     * Gets a slot's current score.
+     * @param k The slot
+     * @return the slot's score
+     */
+    public int getScore(int k) {
+        return scores[k];
+    }
+
+    /**
+     * Gets the percentage of ponies that have currently been saved in a slot.
+     * @param k The slot
+     * @return the percentage
+     */
+    public int getPonyPercent(int k) {
+        int poniesSaved = initialPonyCount - ponyCounts[k];
+        double percent = 100*((double)poniesSaved)/initialPonyCount;
+        return (int)percent;
+    }
+
+    /**
+     * Changes a slot's score based on its burgler's new cell, removing a
+     * captured pony. Same order as Environment.processScore().
+     * @param k The slot
+     * @param cell The burgler's new cell
+     * @return reward that was added
+     */
+    private int processScore(int k, int cell) {
+        int add;
+        byte flags = occupancy[cell];
+        if ((flags&Environment.ESCAPE)!=0) add = Environment.ESCAPE_SCORE;
+        else if (removePony(k, cell)) add = Environment.PONY_SCORE;
+        else if ((flags&Environment.TROLL)!=0) add = Environment.TROLL_SCORE;
+        else add = Environment.NEUTRAL_SCORE;
+        scores[k] += add;
+        return add;
+    }
+
+    /**
+     * Removes one remaining pony from a slot's cell, if there is one.
+     * @param k The slot
+     * @param cell The cell to take a pony from
+     * @return if a pony was removed
+     */
+    private boolean removePony(int k, int cell) {
+        for (int i=ponyStart[cell]; i<ponyStart[cell+1]; i++) {
+            int id = ponyIds[i];
+            int word = k*ponyWords+(id>>>6);
+            long bit = 1L<<id;
+            if ((ponies[word]&bit)!=0) {
+                ponies[word] &= ~bit;
+                ponyCounts[k]--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the cells a burgler may start in: those with nothing in them.
+     */
+    private void initFreeCells() {
+        int count = 0;
+        for (int c=0; c<occupancy.length; c++) if (occupancy[c]==0) count++;
+        freeCells = new int[count];
+        count = 0;
+        for (int c=0; c<occupancy.length; c++)
+            if (occupancy[c]==0) freeCells[count++] = c;
+    }
+
+    /**
+     * Groups the board's ponies by cell, so a slot can find the ponies in
+     * its burgler's cell without scanning them all.
+     */
+    private void initPonyIndex() {
+        int count = board.getPonyCount();
+        ponyStart = new int[size*size+1];
+        for (int i=0; i<count; i++)
+            if (board.getPonyCell(i)>=0) ponyStart[board.getPonyCell(i)+1]++;
+        for (int c=0; c<size*size; c++) ponyStart[c+1] += ponyStart[c];
+        ponyIds = new int[ponyStart[size*size]];
+        int[] filled = new int[size*size];
+        for (int i=0; i<count; i++) {
+            int cell = board.getPonyCell(i);
+            if (cell>=0) ponyIds[ponyStart[cell]+filled[cell]++] = i;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.*;
+import java.util.random.*;
+import java.io.*;
+
+/**
+ * Trains one Q table from a BatchEnvironment: one Agent per slot, all
+ * learning into the same table, with every slot stepped in lockstep. Reports
+ * moves/sec, then runs the learned policy greedily like QLearn does.
+ */
+public class BatchQLearn {
+
+    /**
+     * Usage: java BatchQLearn input alpha gamma epochs slots [seed] 
+     *                         [--action-masks=false]
+     * With a seed, the run comes out the same every time. Agents only pick
+     * among legal moves, like QLearn's, unless masks are turned off.
+     * @param args The command line arguments
+     */
+    public static void main(String[] args) {
+        int count = 0; //Parameters before the option, if it's there
+        while (count<args.length && !args[count].startsWith("--")) count++;
+        String masksOption = QLearn.option(args, "action-masks", null);
+        if ((count!=5&&count!=6) || 
+                args.length-count!=(masksOption==null ? 0 : 1)) 
+            error("cmd");
+        boolean masks = masksOption==null || 
+                        Boolean.parseBoolean(masksOption);
+        PrintStream[] outs = QLearn.cmdAndFile(QLearn.OUTPUT_FILENAME);
+        Board board = QLearn.loadBoard(args[0]);
+        if (board.isLarge()) error("large");
+        double alpha = 0, gamma = 0;
+        int epochs = 0, slots = 0;
+        SplittableRandom seeds = new SplittableRandom();
+        try {
+            alpha = Double.parseDouble(args[1]);
+            gamma = Double.parseDouble(args[2]);
+            epochs = Integer.parseInt(args[3]);
+            slots = Integer.parseInt(args[4]);
+            if (count==6) 
+                seeds = new SplittableRandom(Long.parseLong(args[5]));
+        } catch (NumberFormatException e) {
+            error("param");
+        }
+        if (slots<1) error("param");
+        QTable q = new DenseQTable(board.getSize(),
+            Environment.NEIGHBOR_COUNT, Agent.INITIAL_Q);
+
+        long start = System.nanoTime();
+        long moves = train(new BatchEnvironment(board, slots, seeds.split()),
+                            q, alpha, gamma, epochs, masks, seeds.split());
+        double seconds = (System.nanoTime()-start)/1e9;
+        Environment.multiPrintln("Trained " + moves + " moves in " + slots +
+            " slots in " + seconds + "s: " + (long)(moves/seconds) +
+            " moves/sec", outs);
+
+        //We're done learning. Run the policy greedily from a new spot
+        Environment burglerWorld = new Environment(board, seeds.split());
+        SplittableRandom r = seeds.split();
+        Agent burgler = new Agent(burglerWorld.getBurgler(), board.getSize(),
+            alpha, gamma, q);
+        int cap = Evaluator.defaultStepCap(board);
+        for (int move=0; move<cap && !burglerWorld.hasTerm(); move++)
+            QLearn.runIteration(burglerWorld, burgler, r, "greedy", masks, 
+                                outs, null, null, null);
+        burglerWorld.print(outs);
+    }
+
+    /**
+     * Runs the explore phase over every slot of a batch. Each slot has its
+     * own Agent, all sharing the Q table.
+     * @param batch The batch of worlds to learn in
+     * @param q The Q table to learn into
+     * @param alpha The learning rate
+     * @param gamma The discount factor
+     * @param epochs The total number of moves, rounded up to whole batches
+     * @param masks If agents only pick among the moves the batch says are 
+     * legal
+     * @param r The random generator to use for move selection
+     * @return the number of moves actually made
+     */
+    public static long train(BatchEnvironment batch, QTable q, double alpha,
+                        double gamma, int epochs, boolean masks, 
+                        RandomGenerator r) {
+        int slots = batch.getSlots();
+        int size = batch.getBoard().getSize();
+        Agent[] agents = new Agent[slots];
+        int[] actions = new int[slots];
+        for (int k=0; k<slots; k++) {
+            int cell = batch.getBurglerCell(k);
+            agents[k] = new Agent(new int[]{cell/size, cell%size}, size,
+                alpha, gamma, q);
+        }
+        long moves = 0;
+        while (moves<epochs) {
+            for (int k=0; k<slots; k++)
+                actions[k] = masks ? agents[k].selectMove(r, "explore", 
+                                                batch.getValidMoveMask(k)) :
+                                agents[k].selectMove(r, "explore");
+            long[] results = batch.stepAll(actions);
+            for (int k=0; k<slots; k++) {
+                agents[k].giveFeedback(results[k]);
+                //Terminal slots were already reset, so follow the burgler
+                if (Environment.stepTerminal(results[k]))
+                    agents[k].startOver(batch.getBurglerCell(k));
+            }
+            moves += slots;
+        }
+        return moves;
+    }
+
+    //Prints the error message associated with err and exits the program.
+    private static void error(String err) {
+        String message = null;
+        switch (err) {
+            case "cmd":
+                message = "Please provide five command line parameters: An " +
+                            "input file name, a learning rate, a discount " +
+                            "factor, a number of epochs and a slot count, " +
+                            "then optionally a seed and " +
+                            "--action-masks=false.";
+                break;
+            case "param":
+                message = "Please make sure that the learning rate and " +
+                             "discount factors are expressed as real numbers" +
+                             " and that the epochs, slots and seed are " +
+                             "integers, with at least one slot.";
+                break;
+            case "large":
+                message = "The batch and its Q table have a slot for every " +
+                            "cell, so large boards aren't supported. Use " +
+                            "QLearn instead.";
+                break;
+        }
+        System.out.println(message);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,145 @@
+import java.util.*;
+
+/**
+ * The best Q value of each row of a Q table, and a bitmask of the valid
+ * moves tied for it, kept up to date as the table is written instead of
+ * worked out by looking at every move each time. A table with rows of
+ * moveCount Q values in one flat array tells this about every write and
+ * invalidation, and can then answer maxQ() and bestMoves() with a lookup.
+ * A write only costs a comparison, unless it lowers the last of the best
+ * moves, when the row's (at most 8) moves are looked at again.
+ */
+public class BestMoves {
+    private int moveCount;
+    private double[] best; //Per row; -infinity if no move is valid
+    private byte[] ties; //Per row, bit i is set if move i has the best value
+
+    /**
+     * Initializes room for some number of rows.
+     * @param rows The number of rows
+     * @param moveCount The number of moves per row, at most 8
+     */
+    public BestMoves(int rows, int moveCount) {
+        this.moveCount = moveCount;
+        this.best = new double[rows];
+        this.ties = new byte[rows];
+    }
+
+    /**
+     * Makes room for more rows, keeping the ones there are.
+     * @param rows The new number of rows
+     */
+    public void grow(int rows) {
+        best = Arrays.copyOf(best, rows);
+        ties = Arrays.copyOf(ties, rows);
+    }
+
+    /**
+     * Copies every row into another cache with at least as many rows.
+     * @param dest The cache to overwrite
+     */
+    public void copyInto(BestMoves dest) {
+        System.arraycopy(best, 0, dest.best, 0, best.length);
+        System.arraycopy(ties, 0, dest.ties, 0, ties.length);
+    }
+
+    /**
+     * Starts a new row off with every valid move at the same value.
+     * @param row The row
+     * @param value The value all its moves start with
+     * @param valid The row's valid moves, bit i for move i
+     */
+    public void init(int row, double value, int valid) {
+        best[row] = valid==0 ? Double.NEGATIVE_INFINITY : value;
+        ties[row] = (byte)valid;
+    }
+
+    /**
+     * Takes note of a Q value having been written. To be called after the
+     * write.
+     * @param row The row written to
+     * @param move The move written to
+     * @param value The value written
+     * @param q The table's Q values, for rescanning the row if need be
+     * @param valid The row's valid moves, bit i for move i
+     */
+    public void set(int row, int move, double value, double[] q, int valid) {
+        int bit = 1<<move;
+        if ((valid&bit)==0) return; //Invalid moves are never best
+        if (value>best[row]) {
+            best[row] = value;
+            ties[row] = (byte)bit;
+        } else if (value==best[row]) ties[row] |= bit;
+        else if ((ties[row]&bit)!=0) {
+            ties[row] &= ~bit;
+            if (ties[row]==0) rescan(row, q, valid);
+        }
+    }
+
+    /**
+     * Takes note of a move having been invalidated. To be called after.
+     * @param row The row
+     * @param move The move invalidated
+     * @param q The table's Q values, for rescanning the row if need be
+     * @param valid The row's valid moves now, bit i for move i
+     */
+    public void invalidate(int row, int move, double[] q, int valid) {
+        if ((ties[row]&(1<<move))==0) return;
+        ties[row] &= ~(1<<move);
+        if (ties[row]==0) rescan(row, q, valid);
+    }
+
+    /**
+     * Works out a row's best value and ties by looking at every valid move,
+     * eg after the row was loaded from somewhere.
+     * @param row The row
+     * @param q The table's Q values
+     * @param valid The row's valid moves, bit i for move i
+     */
+    public void rescan(int row, double[] q, int valid) {
+        int mask = bestAmong(row, q, valid);
+        best[row] = mask==0 ? Double.NEGATIVE_INFINITY : 
+                    q[row*moveCount+Integer.numberOfTrailingZeros(mask)];
+        ties[row] = (byte)mask;
+    }
+
+    /**
+     * Works out which of some of a row's moves are tied for the highest Q
+     * value among them, without touching the cache, eg the best of the
+     * moves that are legal from where the burgler is.
+     * @param row The row
+     * @param q The table's Q values
+     * @param moves The moves to look at, bit i for move i
+     * @return the best of them, bit i for move i, or 0 if moves is 0
+     */
+    public int bestAmong(int row, double[] q, int moves) {
+        double value = Double.NEGATIVE_INFINITY;
+        int mask = 0;
+        for (int i=0, pos=row*moveCount; i<moveCount; i++, pos++) {
+            if ((moves&(1<<i))==0) continue;
+            if (q[pos]>value) {
+                value = q[pos];
+                mask = 1<<i;
+            } else if (q[pos]==value) mask |= 1<<i;
+        }
+        return mask;
+    }
+
+    /**
+     * Gets a row's best Q value among its valid moves.
+     * @param row The row
+     * @return the best value, or -infinity if no move is valid
+     */
+    public double best(int row) {
+        return best[row];
+    }
+
+    /**
+     * Gets the valid moves tied for a row's best Q value.
+     * @param row The row
+     * @return the moves, bit i for move i, or 0 if no move is valid
+     */
+    public int ties(int row) {
+        return ties[row]&0xFF;
+    }
+}
@@ -0,0 +1,458 @@
+import java.util.*;
+import java.io.*;
+
+/**
+ * The parsed, unchanging description of a burgler world: the board size and
+ * where the escape, ponies, obstructions and trolls start. Parsed once from 
+ * an input file, then used to build and cheaply reset Environments.
+ */
+public class Board {
+    public static int INPUT_FILE_LINE_COUNT = 5;
+    //Boards with more cells than this are large: their grids are tiled 
+    //and their moves are worked out on the fly instead of precomputed
+    public static long LARGE_BOARD_CELLS = 1<<22;
+    //Cells have to fit in the 30 bits Environment.step() packs them into
+    public static long MAX_BOARD_CELLS = 1<<30;
+    //x and y offsets of each Moore neighborhood move, clockwise from north
+    private static int[] DX = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static int[] DY = {1, 1, 0, -1, -1, -1, 0, 1};
+    //Int arrays are x, y coordinates
+    
+    private int size;
+    private int[] escape;
+    private int initialPonyCount;
+    private int[] ponies; //x, y pairs, which can number in millions
+    private int ponyCount; //Ponies listed, ie pairs in ponies
+    private List<int[]> trolls;
+    private int[] obstructions; //x, y pairs, which can number in millions
+    private LongIntMap poniesPerCell; //How many ponies start in each cell
+    //Flags of everything in each cell at the start, indexed by x*size + y
+    private byte[] occupancy;
+    //The same, for large boards, which have no byte per cell or transitions
+    private TiledOccupancy tiles;
+    //Cell reached by each move, or -1 if it leaves the board or hits an
+    //obstruction, indexed by cell*NEIGHBOR_COUNT + move
+    private int[] transitions;
+    //Bit i is set if move i is valid from the cell, indexed by cell
+    private byte[] validMoves;
+    
+    /**
+     * Parses an input file as a description of a board.
+     * @param sc The scanner over the input file to parse
+     */
+    public Board(Scanner sc) {
+        this(scanLines(sc));
+    }
+    
+    /**
+     * Builds a board from the integers on each line of an input file.
+     * @param lines The integers on each of the input file's lines
+     */
+    private Board(int[][] lines) {
+        //Line 1: board size, troll count, pony count
+        //Line 2: escape location
+        //Line 3: pony locations
+        //Line 4: obstruction locations
+        //Line 5: troll locations
+        if (lines.length<INPUT_FILE_LINE_COUNT) error("inputLen");
+        for (int i=1; i<=INPUT_FILE_LINE_COUNT; i++) 
+            parseLine(lines[i-1], i);
+        this.trolls = Collections.unmodifiableList(this.trolls);
+        this.initOccupancy();
+        if (!isLarge()) this.initTransitions();
+    }
+    
+    /**
+     * Parses an input file as a description of a board, reading it through 
+     * a memory map instead of a Scanner. Much faster, and much lighter on 
+     * memory, for files with millions of coordinates.
+     * @param file The input file
+     * @return the board
+     * @throws IOException if the file can't be read
+     */
+    public static Board load(File file) throws IOException {
+        int[][] lines = null;
+        try {
+            lines = InputTokenizer.readLines(file, INPUT_FILE_LINE_COUNT);
+        } catch (NumberFormatException e) {
+            error("token", e.getMessage());
+        }
+        return new Board(lines);
+    }
+    
+    /**
+     * Gets the width of the (square) board.
+     * @return the board size
+     */
+    public int getSize() {
+        return this.size;
+    }
+    
+    /**
+     * Gets the escape location.
+     * @return the escape location
+     */
+    public int[] getEscape() {
+        return this.escape.clone();
+    }
+    
+    /**
+     * Gets the number of ponies the board starts with.
+     * @return the initial pony count
+     */
+    public int getInitialPonyCount() {
+        return this.initialPonyCount;
+    }
+    
+    /**
+     * Gets the starting pony locations, in input file order. Each point is 
+     * made on the fly, since there can be millions of them.
+     * @return an unmodifiable list of pony locations
+     */
+    public List<int[]> getPonies() {
+        return new AbstractList<int[]>() {
+            @Override
+            public int[] get(int i) {
+                return new int[]{ponies[2*i], ponies[2*i+1]};
+            }
+            
+            @Override
+            public int size() {
+                return ponyCount;
+            }
+        };
+    }
+    
+    /**
+     * Gets the number of ponies listed in the input file, which the hot 
+     * paths read instead of building a getPonies() view.
+     * @return the pony count
+     */
+    public int getPonyCount() {
+        return this.ponyCount;
+    }
+    
+    /**
+     * Gets the cell a pony starts in, without making a point for it.
+     * @param i The pony's index, in input file order
+     * @return the cell, x*size + y, or -1 if the pony is off the board
+     */
+    public int getPonyCell(int i) {
+        int x = ponies[2*i], y = ponies[2*i+1];
+        return onBoard(x, y) ? x*size+y : -1;
+    }
+    
+    /**
+     * Gets the number of ponies that start in a cell.
+     * @param cell The cell, x*size + y
+     * @return the pony count
+     */
+    public int getPonyCount(int cell) {
+        return poniesPerCell.get(cell, 0);
+    }
+    
+    /**
+     * Gets the troll locations. The points must not be modified.
+     * @return an unmodifiable list of troll locations
+     */
+    public List<int[]> getTrolls() {
+        return this.trolls;
+    }
+    
+    /**
+     * Gets the obstruction locations. Each point is made on the fly, since 
+     * there can be millions of them.
+     * @return an unmodifiable list of obstruction locations
+     */
+    public List<int[]> getObstructions() {
+        return new AbstractList<int[]>() {
+            @Override
+            public int[] get(int i) {
+                return new int[]{obstructions[2*i], obstructions[2*i+1]};
+            }
+            
+            @Override
+            public int size() {
+                return obstructions.length/2;
+            }
+        };
+    }
+    
+    /**
+     * Determines whether this is a large board, with a tiled occupancy grid
+     * instead of a byte per cell. See LARGE_BOARD_CELLS.
+     * @return if it's large
+     */
+    public boolean isLarge() {
+        return this.tiles!=null;
+    }
+    
+    /**
+     * Gets a large board's starting occupancy grid, to build copy-on-write 
+     * views of. It must not be modified.
+     * @return the tiled grid, or null if the board isn't large
+     */
+    public TiledOccupancy getTiles() {
+        return this.tiles;
+    }
+    
+    /**
+     * Copies the starting occupancy grid into dest, which must have a slot 
+     * for every cell. Not for large boards.
+     * @param dest The grid to overwrite
+     */
+    public void copyOccupancy(byte[] dest) {
+        System.arraycopy(occupancy, 0, dest, 0, occupancy.length);
+    }
+    
+    /**
+     * Gets the cell reached by making a move from a cell. Cells are indexed 
+     * x*size + y.
+     * @param cell The starting cell
+     * @param dir 0-7, a Moore neighborhood move numbered clockwise from north
+     * @return the resulting cell, or -1 if the move leaves the board or hits
+     * an obstruction
+     */
+    public int nextCell(int cell, int dir) {
+        if (transitions!=null) 
+            return transitions[cell*Environment.NEIGHBOR_COUNT+dir];
+        int resX = cell/size+DX[dir], resY = cell%size+DY[dir];
+        if (!onBoard(resX, resY) || 
+                tiles.has(resX, resY, Environment.OBSTRUCTION)) return -1;
+        return resX*size+resY;
+    }
+    
+    /**
+     * Gets the valid moves from a cell as a bitmask.
+     * @param cell The starting cell
+     * @return a mask with bit i set if move i is valid from the cell
+     */
+    public int validMoveMask(int cell) {
+        if (validMoves!=null) return validMoves[cell]&0xFF;
+        int mask = 0;
+        for (int dir=0; dir<Environment.NEIGHBOR_COUNT; dir++)
+            if (nextCell(cell, dir)>=0) mask |= 1<<dir;
+        return mask;
+    }
+    
+    /**
+     * Determines whether or not a point is on the board.
+     * @param x The x coordinate
+     * @param y the y coordinate
+     * @return if the point is on the board
+     */
+    public boolean onBoard(int x, int y) {
+        return x>=0 && x<size && y>=0 && y<size;
+    }
+    
+    /**
+     * Builds the occupancy grid from the parsed entity lists.
+     */
+    private void initOccupancy() {
+        if ((long)size*size>LARGE_BOARD_CELLS) tiles = new TiledOccupancy(size);
+        else occupancy = new byte[size*size];
+        poniesPerCell = new LongIntMap(Math.max(ponies.length/2, 1));
+        for (int i=0; i<ponies.length/2; i++) {
+            int cell = getPonyCell(i);
+            if (cell<0) continue;
+            mark(ponies[2*i], ponies[2*i+1], Environment.PONY);
+            poniesPerCell.add(cell, 1);
+        }
+        markAll(trolls, Environment.TROLL);
+        for (int i=0; i<obstructions.length; i+=2) 
+            mark(obstructions[i], obstructions[i+1], Environment.OBSTRUCTION);
+        mark(escape[0], escape[1], Environment.ESCAPE);
+    }
+    
+    /**
+     * Precomputes the result and validity of every move from every cell. 
+     * Obstructions never move, so this only has to happen once.
+     */
+    private void initTransitions() {
+        int moveCount = Environment.NEIGHBOR_COUNT;
+        transitions = new int[size*size*moveCount];
+        validMoves = new byte[size*size];
+        for (int x=0; x<size; x++) for (int y=0; y<size; y++) {
+            int cell = x*size+y;
+            for (int dir=0; dir<moveCount; dir++) {
+                int resX = x+DX[dir], resY = y+DY[dir];
+                int next = -1;
+                if (onBoard(resX, resY) && (occupancy[resX*size+resY]&
+                        Environment.OBSTRUCTION)==0) {
+                    next = resX*size+resY;
+                    validMoves[cell] |= 1<<dir;
+                }
+                transitions[cell*moveCount+dir] = next;
+            }
+        }
+    }
+    
+    /**
+     * Sets a flag in the occupancy grid for every point in the list.
+     * @param list The points to mark
+     * @param flag The occupant's flag
+     */
+    private void markAll(List<int[]> list, byte flag) {
+        for (int[] point : list) mark(point[0], point[1], flag);
+    }
+    
+    /**
+     * Sets a flag in the occupancy grid for a point. Points off the board 
+     * can never be looked up, so they're skipped.
+     * @param x The point's x coordinate
+     * @param y The point's y coordinate
+     * @param flag The occupant's flag
+     */
+    private void mark(int x, int y, byte flag) {
+        if (!onBoard(x, y)) return;
+        if (tiles!=null) tiles.set(x, y, flag);
+        else occupancy[x*size+y] |= flag;
+    }
+    
+    /**
+     * Reads the input file's lines from a Scanner, parsing each into ints.
+     * @param sc The scanner over the input file
+     * @return the integers on each line
+     */
+    private static int[][] scanLines(Scanner sc) {
+        int[][] lines = new int[INPUT_FILE_LINE_COUNT][];
+        for (int i=0; i<INPUT_FILE_LINE_COUNT; i++) {
+            if (!sc.hasNextLine()) error("inputLen");
+            //Split line and parse each token as an int
+            String[] splitLine = sc.nextLine().split(" ");
+            lines[i] = new int[splitLine.length];
+            for (int j=0; j<splitLine.length; j++) 
+                lines[i][j] = Integer.parseInt(splitLine[j]);
+        }
+        return lines;
+    }
+    
+    /**
+     * Parses an arbitrary input file line, already split into integers, by 
+     * passing it along to specific line handlers.
+     * @param splitLineInts The line's integers
+     * @param lineNum the number of this specific line
+     */
+    private void parseLine(int[] splitLineInts, int lineNum) {
+        //Check there's enough for the line, and pairs come in pairs
+        int needed = lineNum==1 ? 3 : lineNum==2 ? 2 : 0;
+        if (splitLineInts.length<needed || 
+                (lineNum>2 && splitLineInts.length%2!=0)) error("token");
+        
+        //Pass to specific line handlers
+        switch (lineNum) {
+            case 1:
+                parseSizeTrollPonyCount(splitLineInts);
+                break;
+            case 2:
+                parseEscape(splitLineInts);
+                break;
+            case 3:
+                parsePonies(splitLineInts);
+                break;
+            case 4:
+                parseObstructions(splitLineInts);
+                break;
+            case 5:
+                parseTrolls(splitLineInts);
+                break;
+        }
+    }
+    
+    /**
+     * Parses the first line. Sets the size of the board and initializes 
+     * the troll list's size.
+     * @param splitLine the line to parse, split into tokens
+     */
+    private void parseSizeTrollPonyCount(int[] splitLine) {
+        this.size = splitLine[0];
+        if ((long)size*size>MAX_BOARD_CELLS) error("size");
+        //Get troll and pony counts
+        int trollCount = splitLine[1];
+        int ponyCount = splitLine[2];
+        //Init size of troll list
+        this.trolls = new ArrayList<>(trollCount);
+        this.initialPonyCount = ponyCount;
+    }
+    
+    /**
+     * Parses the second line. Sets the escape location
+     * @param splitLine the line to parse, split into integer tokens
+     */
+    private void parseEscape(int[] splitLine) {
+        this.escape = new int[]{splitLine[0], splitLine[1]};
+    }
+    
+    /**
+     * Parses the third line. Sets pony locations
+     * @param splitLine the line to parse, split into integer tokens
+     */
+    private void parsePonies(int[] splitLine) {
+        //Kept as the pairs themselves, like obstructions
+        ponies = splitLine;
+        ponyCount = splitLine.length/2;
+    }
+    
+    /**
+     * Parses the fourth line. Sets obstruction locations
+     * @param splitLine the line to parse, split into integer tokens
+     */
+    private void parseObstructions(int[] splitLine) {
+        //Kept as the pairs themselves, rather than a list of int[]s
+        obstructions = splitLine;
+        //If the pair -1 -1 was given, it means there aren't any obstructions
+        for (int i=0; i<obstructions.length; i+=2) if (obstructions[i]==-1) {
+            obstructions = new int[0];
+            break;
+        }
+    }
+    
+    /**
+     * Parses the fifth line. Sets troll locations
+     * @param splitLine the line to parse, split into integer tokens
+     */
+    private void parseTrolls(int[] splitLine) {
+        parsePairs(splitLine, trolls);
+    }
+    
+    /**
+     * Parses a line that is a series of pairs that match in order. Adds it to
+     * a specified ArrayList of pairs (int[2]s).
+     * @param splitLine the line to parse, split into integer tokens
+     * @param list The list of pairs to add pairs to
+     */
+    private void parsePairs(int[] splitLine, List<int[]> list) {
+        for (int i=0; i<splitLine.length; i+=2)
+            list.add(new int[]{splitLine[i], splitLine[i+1]});
+    }
+    
+    //Prints the error message associated with err and exits the program.
+    private static void error(String err) {
+        error(err, null);
+    }
+    
+    //Prints the error message associated with err, followed by what exactly
+    //was wrong if known, and exits the program.
+    private static void error(String err, String detail) {
+        String message = null;
+        switch (err) {
+            case "inputLen":
+                message = "Input file doesn't have enough lines. See the" +
+                            "README for the input file format.";
+                break;
+            case "token":
+                message = "Input file has a line with too few integers, " +
+                            "an odd number of coordinates, or something " +
+                            "that isn't an integer. See the README for the " +
+                            "input file format.";
+                break;
+            case "size":
+                message = "The board is too big. It can have at most " + 
+                            MAX_BOARD_CELLS + " cells.";
+                break;
+        }
+        if (detail!=null) message += " " + detail + ".";
+        System.out.println(message);
+        System.exit(1);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,76 @@
+import java.util.concurrent.*;
+import java.io.*;
+
+/**
+ * Saves a Q table to a checkpoint file every so many moves while training
+ * goes on. The training thread only copies the table into a snapshot, which
+ * is a few array copies, and a background thread writes the snapshot out.
+ * If the previous checkpoint is still being written, that interval's
+ * checkpoint is skipped rather than making training wait.
+ */
+public class Checkpointer {
+    private DenseQTable live;
+    private DenseQTable snapshot;
+    private File file;
+    private long intervalMoves;
+    private long moves;
+    private ExecutorService writer;
+    private Future<?> pending;
+
+    /**
+     * Sets up periodic checkpoints of a table.
+     * @param live The table being trained
+     * @param file The checkpoint file to keep overwriting
+     * @param intervalMoves How many moves between checkpoints
+     */
+    public Checkpointer(DenseQTable live, File file, long intervalMoves) {
+        this.live = live;
+        this.snapshot = new DenseQTable(live.getSize(), live.moveCount(),
+                                        Agent.INITIAL_Q);
+        this.file = file;
+        this.intervalMoves = intervalMoves;
+        this.writer = Executors.newSingleThreadExecutor(task -> {
+            Thread t = new Thread(task, "checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Counts a move, starting a checkpoint if it's time for one. To be
+     * called by the training thread after every move.
+     */
+    public void step() {
+        if (++moves%intervalMoves!=0) return;
+        if (pending!=null && !pending.isDone()) return; //Still writing
+        live.copyInto(snapshot);
+        pending = writer.submit(this::write);
+    }
+
+    /**
+     * Waits for any checkpoint in progress, then saves the table one last
+     * time and stops the background thread.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        live.copyInto(snapshot);
+        write();
+    }
+
+    /**
+     * Writes the snapshot to the checkpoint file. Failures are reported but
+     * don't stop training.
+     */
+    private void write() {
+        try {
+            snapshot.save(file);
+        } catch (IOException e) {
+            System.err.println("Checkpoint failed: " + e.getMessage());
+        }
+    }
+}
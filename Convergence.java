@@ -0,0 +1,62 @@
+/**
+ * Decides when training has stopped changing anything. Watches the size of
+ * every Q update, and optionally whether it changed the greedy policy. Once
+ * the updates have stayed under the tolerance (and the policy has held
+ * still) for a whole window of moves and a whole window of episodes, the
+ * Q values have converged and training can stop early.
+ * Only counts since the last big update are kept, which is the same as
+ * checking the largest update over a sliding window, without the window.
+ */
+public class Convergence {
+    private double tolerance;
+    private long windowMoves;
+    private long windowEpisodes;
+    private boolean watchPolicy;
+
+    //Moves and episodes since the last update that was too big
+    private long quietMoves;
+    private long quietEpisodes;
+
+    /**
+     * Sets up a convergence check.
+     * @param tolerance The largest Q update that still counts as converged
+     * @param windowMoves How many moves in a row must stay under tolerance
+     * @param windowEpisodes How many episodes in a row must stay under it
+     * @param watchPolicy Whether greedy policy changes also count as not
+     * converged
+     */
+    public Convergence(double tolerance, long windowMoves,
+                        long windowEpisodes, boolean watchPolicy) {
+        this.tolerance = tolerance;
+        this.windowMoves = windowMoves;
+        this.windowEpisodes = windowEpisodes;
+        this.watchPolicy = watchPolicy;
+    }
+
+    /**
+     * Checks the agent's last update. To be called after every feedback.
+     * @param agent The agent that just learned
+     */
+    public void step(Agent agent) {
+        if (agent.getLastDelta()>=tolerance ||
+                (watchPolicy && agent.lastUpdateChangedPolicy())) {
+            quietMoves = 0;
+            quietEpisodes = 0;
+        } else quietMoves++;
+    }
+
+    /**
+     * Counts a finished episode.
+     */
+    public void endEpisode() {
+        quietEpisodes++;
+    }
+
+    /**
+     * Determines whether or not training has converged.
+     * @return if the whole window has been under tolerance
+     */
+    public boolean converged() {
+        return quietMoves>=windowMoves && quietEpisodes>=windowEpisodes;
+    }
+}
@@ -0,0 +1,256 @@
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * A QTable backed by one flat double array with a slot for every move from
+ * every cell on the board. The Q value of a move lives at
+ * state*moveCount + move, where state is x*size + y. A state's moves are only
+ * initialized the first time it is visited, like the map-backed table, and
+ * invalidated moves are tracked in a parallel bitmask per state. Visits to
+ * each state are counted too, and each state's best moves are kept up to
+ * date as it's written (see BestMoves).
+ * The whole table can be saved to a versioned binary checkpoint file and 
+ * loaded back through a memory map.
+ */
+public class DenseQTable implements QTable {
+    public static int MAX_MOVE_COUNT = 8;
+    //Checkpoint file header: magic number ("QTBL") and format version
+    private static int FILE_MAGIC = 0x5154424C;
+    private static int FILE_VERSION = 1;
+    private static int HEADER_BYTES = 4*4+8+4;
+    private static int WRITE_CHUNK_BYTES = 1<<20;
+
+    private int size;
+    private double initialQ;
+    private int moveCount;
+    private double[] q;
+    private byte[] validMoves; //bit i is set if move i is still valid
+    private long[] visited; //bitset over states that have been initialized
+    private int visitedCount;
+    private int[] visits; //times an agent has arrived in each state
+    private BestMoves bestMoves;
+
+    /**
+     * Initializes a dense Q table big enough for every cell on a board.
+     * @param size The width of the (square) board
+     * @param moveCount The number of moves each state has, at most 8
+     * @param initialQ The Q value new moves start with
+     */
+    public DenseQTable(int size, int moveCount, double initialQ) {
+        if (moveCount>MAX_MOVE_COUNT)
+            throw new IllegalArgumentException("Dense Q tables support at " +
+                        "most " + MAX_MOVE_COUNT + " moves per state");
+        int states = size*size;
+        this.q = new double[states*moveCount];
+        this.validMoves = new byte[states];
+        this.visited = new long[(states+63)/64];
+        this.visits = new int[states];
+        this.bestMoves = new BestMoves(states, moveCount);
+        this.size = size;
+        this.moveCount = moveCount;
+        this.initialQ = initialQ;
+    }
+
+    @Override
+    public void ensureExists(int state) {
+        long bit = 1L<<state;
+        if ((visited[state>>>6]&bit)!=0) return;
+        //If we get here, the spot was new. Init its actions' Q values.
+        visited[state>>>6] |= bit;
+        visitedCount++;
+        Arrays.fill(q, state*moveCount, (state+1)*moveCount, initialQ);
+        validMoves[state] = (byte)((1<<moveCount)-1);
+        bestMoves.init(state, initialQ, validMoves[state]&0xFF);
+    }
+
+    @Override
+    public void visit(int state) {
+        ensureExists(state);
+        visits[state]++;
+    }
+
+    /**
+     * Gets the number of times an agent has arrived in a state.
+     * @param state The state
+     * @return the visit count
+     */
+    public int visitCount(int state) {
+        return visits[state];
+    }
+
+    /**
+     * Gets the width of the board this table was sized for.
+     * @return the board size
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    @Override
+    public double get(int state, int move) {
+        return q[state*moveCount+move];
+    }
+
+    @Override
+    public void set(int state, int move, double value) {
+        q[state*moveCount+move] = value;
+        bestMoves.set(state, move, value, q, validMoves[state]&0xFF);
+    }
+
+    @Override
+    public boolean isValid(int state, int move) {
+        return (validMoves[state]&(1<<move))!=0;
+    }
+
+    @Override
+    public void invalidate(int state, int move) {
+        validMoves[state] &= ~(1<<move);
+        bestMoves.invalidate(state, move, q, validMoves[state]&0xFF);
+    }
+
+    @Override
+    public double maxQ(int state) {
+        return Math.max(bestMoves.best(state), -1);
+    }
+
+    @Override
+    public int bestMoves(int state) {
+        return bestMoves.ties(state);
+    }
+
+    @Override
+    public int stateCount() {
+        return this.visitedCount;
+    }
+
+    @Override
+    public int moveCount() {
+        return this.moveCount;
+    }
+
+    /**
+     * Copies everything in this table into another table of the same size,
+     * eg to take a snapshot that can be saved while training goes on.
+     * @param dest The table to overwrite
+     */
+    public void copyInto(DenseQTable dest) {
+        if (dest.size!=size||dest.moveCount!=moveCount)
+            throw new IllegalArgumentException("Q tables differ in size");
+        System.arraycopy(q, 0, dest.q, 0, q.length);
+        System.arraycopy(validMoves, 0, dest.validMoves, 0, validMoves.length);
+        System.arraycopy(visited, 0, dest.visited, 0, visited.length);
+        System.arraycopy(visits, 0, dest.visits, 0, visits.length);
+        bestMoves.copyInto(dest.bestMoves);
+        dest.visitedCount = visitedCount;
+        dest.initialQ = initialQ;
+    }
+
+    /**
+     * Saves the table to a checkpoint file. Writes to a temporary file first
+     * and then moves it into place, so a crash never leaves a half written
+     * checkpoint behind.
+     * @param file The checkpoint file
+     * @throws IOException if the file can't be written
+     */
+    public void save(File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(temp, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(WRITE_CHUNK_BYTES)
+                                        .order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(size)
+               .putInt(moveCount).putDouble(initialQ).putInt(visitedCount);
+            for (double v : q) buf = putOrFlush(ch, buf, 8).putDouble(v);
+            for (byte v : validMoves) buf = putOrFlush(ch, buf, 1).put(v);
+            for (long v : visited) buf = putOrFlush(ch, buf, 8).putLong(v);
+            for (int v : visits) buf = putOrFlush(ch, buf, 4).putInt(v);
+            flush(ch, buf);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a table from a checkpoint file by memory mapping it.
+     * @param file The checkpoint file
+     * @return the loaded table
+     * @throws IOException if the file can't be read or isn't a checkpoint
+     */
+    public static DenseQTable load(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            //Check the header before trusting it to size anything
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                                            .order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && ch.read(header)>=0);
+            header.flip();
+            if (header.remaining()<HEADER_BYTES || header.getInt()!=FILE_MAGIC)
+                throw new IOException("Not a Q table checkpoint: " + file);
+            int version = header.getInt();
+            if (version!=FILE_VERSION)
+                throw new IOException("Unsupported checkpoint version " +
+                                        version + ": " + file);
+            int size = header.getInt();
+            int moveCount = header.getInt();
+            double initialQ = header.getDouble();
+            int visitedCount = header.getInt();
+            //Dense tables are only made for boards that aren't large
+            long states = (long)size*size;
+            if (size<1 || states>Board.LARGE_BOARD_CELLS || moveCount<1 || 
+                    moveCount>MAX_MOVE_COUNT || visitedCount<0 || 
+                    visitedCount>states)
+                throw new IOException("Corrupt checkpoint header: " + file);
+            long expected = HEADER_BYTES + 8*states*moveCount + states + 
+                            8*((states+63)/64) + 4*states;
+            if (ch.size()!=expected)
+                throw new IOException("Truncated checkpoint: " + file);
+
+            DenseQTable table = new DenseQTable(size, moveCount, initialQ);
+            table.visitedCount = visitedCount;
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 
+                                    HEADER_BYTES, expected-HEADER_BYTES);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            map.asDoubleBuffer().get(table.q);
+            map.position(map.position()+8*table.q.length);
+            map.get(table.validMoves);
+            map.asLongBuffer().get(table.visited);
+            map.position(map.position()+8*table.visited.length);
+            map.asIntBuffer().get(table.visits);
+            for (int s=0; s<table.validMoves.length; s++) 
+                table.bestMoves.rescan(s, table.q, table.validMoves[s]&0xFF);
+            return table;
+        }
+    }
+
+    /**
+     * Makes room in a write buffer, writing it out if it's full.
+     * @param ch The channel to write to
+     * @param buf The buffer being filled
+     * @param bytes The number of bytes about to be put
+     * @return the buffer, ready for the bytes
+     * @throws IOException if the write fails
+     */
+    private static ByteBuffer putOrFlush(FileChannel ch, ByteBuffer buf,
+                        int bytes) throws IOException {
+        if (buf.remaining()<bytes) flush(ch, buf);
+        return buf;
+    }
+
+    /**
+     * Writes out everything in a write buffer and empties it.
+     * @param ch The channel to write to
+     * @param buf The buffer to write
+     * @throws IOException if the write fails
+     */
+    private static void flush(FileChannel ch, ByteBuffer buf)
+                        throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+}
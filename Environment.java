@@ -1,69 +1,222 @@
 import java.util.*;
+import java.util.random.*;
 import java.io.*;
 
 public class Environment {
-    public static int INPUT_FILE_LINE_COUNT = 5;
     public static int ESCAPE_SCORE = 15;
     public static int PONY_SCORE = 10;
     public static int TROLL_SCORE = -15;
     public static int NEUTRAL_SCORE = 2;
     public static int NEIGHBOR_COUNT = 8;
+    //Flags for what occupies a cell in the occupancy grid
+    public static byte PONY = 1;
+    public static byte TROLL = 2;
+    public static byte OBSTRUCTION = 4;
+    public static byte ESCAPE = 8;
+    //"## " or "###" on each end of a printed row
+    private static int FRAME_EDGE_BYTES = 3;
+    //Bits of the packed result of step(), above the 32 bit reward
+    private static int STEP_CELL_SHIFT = 32;
+    private static long STEP_CELL_MASK = (1L<<30)-1;
+    private static long STEP_TERMINAL = 1L<<62;
+    private static long STEP_VALID = 1L<<63;
     //Int arrays are x, y coordinates
     
-    //Immutable parts of the Environment
+    //Immutable parts of the Environment, shared with its Board
+    private Board board;
     private int size;
-    private int[] escape;
     private int initialPonyCount;
-    private List<int[]> ponies;
-    private List<int[]> trolls; //Will move soon
-    private List<int[]> obstructions;
     
     //Changing aspects of the environment
-    private int[] burgler;
-    private List<int[]> burglerPath;
+    private int ponyCount; //Ponies left, counting any off the board
+    //Ponies taken from each cell this episode, only for cells with some
+    private LongIntMap poniesTaken = new LongIntMap(16);
+    //Bit i is set if the board's i'th pony is still here (first 64 only)
+    private long ponyMask;
+    private byte[] occupancy; //Flags in each cell, indexed by x*size + y
+    private TiledOccupancy tiles; //Instead of occupancy, on large boards
+    private String trollMovement = "none"; //"none", "random" or "pursue"
+    private int[] trollCells; //Where each troll is, x*size + y
+    private int[] trollCounts; //Trolls in each cell, if they move
+    private LongIntMap trollCountMap; //Instead of trollCounts, if large
+    private RandomGenerator random; //For trolls, from the last reset
+    private byte[] frame; //What print() last rendered, reused
+    private int burgler = -1; //Cell, x*size + y, or -1 before it's placed
+    private Trajectory burglerPath;
+    private EpisodeLog episodeLog; //Logs every move, if set
     private int score;
+    private int moves; //Moves tried this episode, valid or not
     
     /**
      * Parses an input file as a description of an environment.
      * @param sc The scanner over the input file to parse
      */
     public Environment(Scanner sc) {
-        //Line 1: board size, troll count, pony count
-        //Line 2: escape location
-        //Line 3: pony locations
-        //Line 4: obstruction locations
-        //Line 5: troll locations
-        for (int i=1; i<=INPUT_FILE_LINE_COUNT; i++) {
-            if (!sc.hasNextLine()) this.error("inputLen");
-            String line = sc.nextLine();
-            parseLine(line, i);
-        }
-        this.initBurgler(new Random());
+        this(new Board(sc));
+    }
+    
+    /**
+     * Builds a fresh environment from an already parsed board, with the 
+     * burgler at a random unoccupied spot, from an unseeded generator.
+     * @param board The board to play on
+     */
+    public Environment(Board board) {
+        this(board, new SplittableRandom());
+    }
+    
+    /**
+     * Builds a fresh environment from an already parsed board.
+     * @param board The board to play on
+     * @param r The random generator to use to place the burgler and move
+     * the trolls, until a reset is given another
+     */
+    public Environment(Board board, RandomGenerator r) {
+        this.board = board;
+        this.size = board.getSize();
+        this.initialPonyCount = board.getInitialPonyCount();
+        this.trollCells = new int[board.getTrolls().size()];
+        if (board.isLarge()) this.tiles = new TiledOccupancy(board.getTiles());
+        else this.occupancy = new byte[size*size];
+        this.burglerPath = new Trajectory(board);
+        this.reset(r);
+    }
+    
+    /**
+     * Puts the environment back to the board's starting state in place: 
+     * restores the ponies and score, clears the path and moves the burgler 
+     * to a new random unoccupied spot. Doesn't touch the input file.
+     * @param r The random generator to use to place the burgler
+     */
+    public void reset(RandomGenerator r) {
+        reset(r, -1);
+    }
+    
+    /**
+     * Puts the environment back to the board's starting state like 
+     * reset(r), drawing from the same generator as the last reset, so the
+     * environment's randomness stays in its own stream.
+     */
+    public void reset() {
+        reset(random, -1);
+    }
+    
+    /**
+     * Puts the environment back to the board's starting state like 
+     * reset(r), but starts the burgler in a given cell, eg to try a policy 
+     * from every start in turn.
+     * @param r The random generator for the trolls, and to place the 
+     * burgler if no cell is given
+     * @param cell The burgler's start, x*size + y, which must be free (see
+     * isFree()), or -1 for a random unoccupied spot
+     */
+    public void reset(RandomGenerator r, int cell) {
+        if (episodeLog!=null) episodeLog.endEpisode(outcome());
+        this.ponyCount = board.getPonyCount();
+        poniesTaken.clear();
+        this.ponyMask = initialPonyCount>=Long.SIZE ? -1 : 
+                        (1L<<initialPonyCount)-1;
+        if (tiles!=null) tiles.reset();
+        else board.copyOccupancy(occupancy);
+        this.initTrolls();
+        this.random = r;
+        this.burgler = cell;
+        this.initBurgler(r);
         this.initBurglerPath();
         this.score = 0;
+        this.moves = 0;
+        if (episodeLog!=null) episodeLog.startEpisode(getBurglerCell());
     }
     
     /**
      * Initializes the burgler to a random unoccupied spot. Implemented lazily
-     * @param r The Random object to use
+     * @param r The random generator to use
      */
-    private void initBurgler(Random r) {        
-        while(this.burgler==null) {
+    private void initBurgler(RandomGenerator r) {        
+        while(this.burgler<0) {
             int proposedX = r.nextInt(size);
             int proposedY = r.nextInt(size);
             if (!this.hasAnything(proposedX, proposedY))
-                this.burgler = new int[]{proposedX, proposedY};
+                this.burgler = proposedX*size+proposedY;
         }
     }
     
+    /**
+     * Puts the trolls back where the board starts them. Their occupancy 
+     * flags are already back, so only the counts need fixing, and only in 
+     * the cells the trolls were in.
+     */
+    private void initTrolls() {
+        boolean counted = trollCounts!=null || trollCountMap!=null;
+        if (counted) for (int cell : trollCells) countTroll(cell, -1);
+        List<int[]> start = board.getTrolls();
+        for (int i=0; i<trollCells.length; i++) {
+            trollCells[i] = start.get(i)[0]*size+start.get(i)[1];
+            if (counted) countTroll(trollCells[i], 1);
+        }
+    }
+    
+    /**
+     * Sets how the trolls move after each of the burgler's moves. 
+     * Options:
+     *     none:   Trolls stay put, the original game
+     *     random: Each troll tries a random move. Ones that leave the board 
+     *             or hit an obstruction are skipped, like the burgler's
+     *     pursue: Each troll takes the move that gets it closest to the 
+     *             burgler, or stays put if none gets it closer
+     * Trolls never step onto the escape or a pony. Turning movement on 
+     * starts keeping a count of trolls per cell, so a troll leaving a cell 
+     * only clears its flag if no other troll is left there. On large boards
+     * the counts are kept in a map, for only the cells trolls have been in.
+     * @param type The type of troll movement
+     */
+    public void setTrollMovement(String type) {
+        switch (type) {
+            case "none":
+                break;
+            case "random":
+            case "pursue":
+                if (trollCounts!=null || trollCountMap!=null) break;
+                if (tiles!=null) 
+                    trollCountMap = new LongIntMap(trollCells.length);
+                else trollCounts = new int[size*size];
+                for (int cell : trollCells) countTroll(cell, 1);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown troll movement: "
+                                                    + type);
+        }
+        this.trollMovement = type;
+    }
+    
     /**
      * Initializes burgler path. At first only contains the burgler's start.
      */
     private void initBurglerPath() {
-        burglerPath = new ArrayList<>();
-        burglerPath.add(burgler);
+        burglerPath.clear();
+        burglerPath.add(getBurglerCell());
     }   
     
+    /**
+     * Starts logging every move made to an episode log, beginning with the 
+     * episode underway, or stops logging. The episode underway is ended in 
+     * the old log, if there was one. Closing the log is up to the caller.
+     * @param log The log to write to, or null to stop logging
+     */
+    public void setEpisodeLog(EpisodeLog log) {
+        if (episodeLog!=null) episodeLog.endEpisode(outcome());
+        this.episodeLog = log;
+        if (log!=null) log.startEpisode(getBurglerCell());
+    }
+    
+    /**
+     * Gets how the episode underway has ended so far, for the episode log.
+     * @return EpisodeLog.ESCAPED, DIED or CUT_SHORT if it's not over
+     */
+    private int outcome() {
+        if (!hasTerm()) return EpisodeLog.CUT_SHORT;
+        return hasEscaped() ? EpisodeLog.ESCAPED : EpisodeLog.DIED;
+    }
+    
     /**
      * Moves the burgler in the given direction, as long as it's valid.
      * @param dir 0-7, a Moore neighborhood move numbered clockwise from north
@@ -72,12 +225,97 @@ public class Environment {
      *             fb[1] = (int[]) resultLocation
      */
     public Object[] makeMove(int dir) {
-        if (validMove(dir, burgler)) {
-            burgler = getMoveResult(dir, burgler);
-            burglerPath.add(burgler);
+        moves++;
+        int next = board.nextCell(getBurglerCell(), dir);
+        if (next>=0) {
+            burgler = next;
+            burglerPath.add(next);
             int reward = this.processScore();
-            return new Object[]{reward, burgler};
-        } else return null;
+            reward += this.moveTrolls();
+            if (episodeLog!=null) episodeLog.move(dir, reward, true);
+            return new Object[]{reward, getBurgler()};
+        }
+        if (episodeLog!=null) episodeLog.move(dir, 0, false);
+        return null;
+    }
+    
+    /**
+     * Moves the burgler in the given direction, as long as it's valid, and 
+     * packs the feedback for the Agent into one long instead of an array. 
+     * Read the result with stepReward(), stepCell(), stepTerminal() and 
+     * stepValid().
+     * @param dir 0-7, a Moore neighborhood move numbered clockwise from north
+     * @return the packed feedback. If the move was invalid, the burgler 
+     * stays put, the reward is 0 and the valid flag is clear.
+     */
+    public long step(int dir) {
+        moves++;
+        int cell = getBurglerCell();
+        int next = board.nextCell(cell, dir);
+        if (next<0) {
+            if (episodeLog!=null) episodeLog.move(dir, 0, false);
+            return packStep(0, cell, hasTerm(), false);
+        }
+        burgler = next;
+        burglerPath.add(next);
+        int reward = this.processScore();
+        reward += this.moveTrolls();
+        if (episodeLog!=null) episodeLog.move(dir, reward, true);
+        return packStep(reward, next, hasTerm(), true);
+    }
+    
+    /**
+     * Gets the reward from a packed step() result.
+     * @param step The packed result
+     * @return the reward
+     */
+    public static int stepReward(long step) {
+        return (int)step;
+    }
+    
+    /**
+     * Gets the burgler's resulting cell, x*size + y, from a packed step() 
+     * result.
+     * @param step The packed result
+     * @return the cell index
+     */
+    public static int stepCell(long step) {
+        return (int)((step>>>STEP_CELL_SHIFT)&STEP_CELL_MASK);
+    }
+    
+    /**
+     * Determines whether a packed step() result left the burgler at the 
+     * escape or dead.
+     * @param step The packed result
+     * @return if the step ended the episode
+     */
+    public static boolean stepTerminal(long step) {
+        return (step&STEP_TERMINAL)!=0;
+    }
+    
+    /**
+     * Determines whether a packed step() result was a valid move.
+     * @param step The packed result
+     * @return if the burgler actually moved
+     */
+    public static boolean stepValid(long step) {
+        return (step&STEP_VALID)!=0;
+    }
+    
+    /**
+     * Packs the feedback of a step into a long.
+     * @param reward The reward for the step
+     * @param cell The burgler's cell after the step
+     * @param terminal Whether the burgler is at the escape or dead
+     * @param valid Whether the move was valid
+     * @return the packed result
+     */
+    public static long packStep(int reward, int cell, boolean terminal, 
+                        boolean valid) {
+        long step = (reward&0xFFFFFFFFL)|((long)cell<<STEP_CELL_SHIFT);
+        if (terminal) step |= STEP_TERMINAL;
+        if (valid) step |= STEP_VALID;
+        return step;
     }
     
     /**
@@ -85,9 +323,24 @@ public class Environment {
      * @return if the burgler is at the escape
      */
     public boolean hasTerm() {
-        boolean win = hasBurgler(escape[0], escape[1]);
-        boolean lose = hasTroll(burgler[0], burgler[1]);
-        return win||lose;
+        return (flags(burgler)&(ESCAPE|TROLL))!=0;
+    }
+    
+    /**
+     * Determines whether or not the burgler is at the escape.
+     * @return if the burgler has escaped
+     */
+    public boolean hasEscaped() {
+        return (flags(burgler)&ESCAPE)!=0;
+    }
+    
+    /**
+     * Gets the number of moves the burgler has tried since the last reset, 
+     * including ones that hit a wall.
+     * @return the move count
+     */
+    public int getMoveCount() {
+        return this.moves;
     }
     
     /**
@@ -99,11 +352,37 @@ public class Environment {
     }
     
     /**
-     * Gets the burgler's current location
+     * Gets the parsed board this environment plays on. Its precomputed move
+     * tables can be used by agents and planners.
+     * @return the board
+     */
+    public Board getBoard() {
+        return this.board;
+    }
+    
+    /**
+     * Gets the width of the (square) board.
+     * @return the board size
+     */
+    public int getSize() {
+        return this.size;
+    }
+    
+    /**
+     * Gets the burgler's current cell index, x*size + y.
+     * @return the burgler's cell
+     */
+    public int getBurglerCell() {
+        return this.burgler;
+    }
+    
+    /**
+     * Gets the burgler's current location. The burgler is kept as a cell,
+     * so this builds a new array each time; getBurglerCell() doesn't.
      * @return the burgler's location
      */
     public int[] getBurgler() {
-        return this.burgler.clone();
+        return new int[]{burgler/size, burgler%size};
     }
     
     /** 
@@ -111,7 +390,16 @@ public class Environment {
      * @return pony count
      */
     public int ponyCount() {
-        return this.ponies.size();
+        return this.ponyCount;
+    }
+    
+    /**
+     * Gets which ponies are left, as a bitmask over the order the ponies 
+     * were listed in the input file. Only the first 64 ponies are tracked.
+     * @return the mask, bit i set if pony i is still on the board
+     */
+    public long getPonyMask() {
+        return this.ponyMask;
     }
     
     /**
@@ -121,7 +409,7 @@ public class Environment {
      * @return if there is a pony here
      */
     public boolean hasPony(int x, int y) {
-        return this.hasThing(x, y, this.ponies);
+        return this.hasFlag(x, y, PONY);
     }
      
     /**
@@ -131,7 +419,7 @@ public class Environment {
      * @return if there is a troll here
      */
     public boolean hasTroll(int x, int y) {
-        return this.hasThing(x, y, this.trolls);
+        return this.hasFlag(x, y, TROLL);
     }
     
     /**
@@ -141,7 +429,7 @@ public class Environment {
      * @return if there is an obstruction here
      */
     public boolean hasObstruction(int x, int y) {
-        return this.hasThing(x, y, this.obstructions);
+        return this.hasFlag(x, y, OBSTRUCTION);
     }
     
     /**
@@ -151,7 +439,7 @@ public class Environment {
      * @return if the burgler is here
      */
     public boolean hasBurgler(int x, int y) {
-        return this.hasThing(x, y, pointAsList(this.burgler));
+        return burgler==x*size+y;
     }
     
     /**
@@ -161,7 +449,7 @@ public class Environment {
      * @return if the escape is here
      */
     public boolean hasEscape(int x, int y) {
-        return this.hasThing(x, y, pointAsList(this.escape));
+        return this.hasFlag(x, y, ESCAPE);
     }
     
     /**
@@ -171,51 +459,16 @@ public class Environment {
      * @return if the burgler's path contains this location
      */
     public boolean hasPath(int x, int y) {
-        return this.hasThing(x, y, this.burglerPath);
+        return board.onBoard(x, y) && burglerPath.visited(x*size+y);
     }
     
     /**
-     * Determines whether or not the dir move from src is valid.
-     * @param dir 0-7, a Moore neighborhood move numbered clockwise from north
-     * @param src The starting location for the proposed move
-     * @return whether or not it's valid
+     * Gets the burgler's path this episode. It's reused, so it's only good 
+     * until the next reset().
+     * @return the path
      */
-    private boolean validMove(int dir, int[] src) {
-        int[] res = getMoveResult(dir, src);
-        for (int i=0; i<res.length; i++) 
-            if (res[i]<0||res[i]>=size) return false;
-        if (this.hasObstruction(res[0], res[1])) return false;
-        return true;
-    }
-    
-    /**
-     * Gets the result int[x, y] of moving dir from src.
-     * @param dir 0-7, a Moore neighborhood move numbered clockwise from north
-     * @param src The starting location for the proposed move
-     * @return the resulting point as an int array
-     */
-    private static int[] getMoveResult(int dir, int[] src) {
-        //Otherwise get its result
-        int[] res = null;
-        switch(dir) {
-            case 0: res = new int[]{src[0], src[1]+1};
-            break;
-            case 1: res = new int[]{src[0]+1, src[1]+1};
-            break;
-            case 2: res = new int[]{src[0]+1, src[1]};
-            break;
-            case 3: res = new int[]{src[0]+1, src[1]-1};
-            break;
-            case 4: res = new int[]{src[0], src[1]-1};
-            break;
-            case 5: res = new int[]{src[0]-1, src[1]-1};
-            break;
-            case 6: res = new int[]{src[0]-1, src[1]};
-            break;
-            case 7: res = new int[]{src[0]-1, src[1]+1};
-            break;
-        }
-        return res;
+    public Trajectory getPath() {
+        return this.burglerPath;
     }
     
     /**
@@ -225,41 +478,126 @@ public class Environment {
      */
     private int processScore() {
         int add = 0;
-        if (this.hasEscape(burgler[0], burgler[1])) add = ESCAPE_SCORE;
-        else if (this.hasPony(burgler[0], burgler[1])) {
+        byte f = flags(burgler);
+        if ((f&ESCAPE)!=0) add = ESCAPE_SCORE;
+        else if ((f&PONY)!=0) {
             add = PONY_SCORE;
             this.removePony(burgler);
-        } else if (this.hasTroll(burgler[0], burgler[1])) add = TROLL_SCORE;
+        } else if ((f&TROLL)!=0) add = TROLL_SCORE;
         else add = NEUTRAL_SCORE;
         
         score += add;
         return add;
     }
     
+    /**
+     * Moves every troll once, if trolls move, updating the occupancy flags 
+     * and counts as each one goes. To be called just after processScore(). 
+     * If a troll catches the burgler, it dies, which costs TROLL_SCORE.
+     * @return reward that was added
+     */
+    private int moveTrolls() {
+        if (trollMovement.equals("none") || hasTerm()) return 0;
+        boolean pursue = trollMovement.equals("pursue");
+        int target = getBurglerCell();
+        for (int i=0; i<trollCells.length; i++) {
+            int from = trollCells[i];
+            int to = pursue ? pursuitCell(from, target) : 
+                        board.nextCell(from, random.nextInt(NEIGHBOR_COUNT));
+            if (to<0 || to==from || (flags(to)&(ESCAPE|PONY))!=0) continue;
+            if (countTroll(from, -1)==0) clearFlag(from, TROLL);
+            countTroll(to, 1);
+            setFlag(to, TROLL);
+            trollCells[i] = to;
+            if (to==target) { //Caught the burgler
+                score += TROLL_SCORE;
+                return TROLL_SCORE;
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Finds the neighboring cell that gets a troll closest to a target, by 
+     * the number of moves it would take with nothing in the way.
+     * @param from The troll's cell
+     * @param target The cell it's chasing
+     * @return the closest neighbor, or from if none is closer
+     */
+    private int pursuitCell(int from, int target) {
+        int best = from;
+        int bestDistance = distance(from, target);
+        int mask = board.validMoveMask(from);
+        for (int dir=0; dir<NEIGHBOR_COUNT; dir++) {
+            if ((mask&(1<<dir))==0) continue;
+            int next = board.nextCell(from, dir);
+            int d = distance(next, target);
+            if (d<bestDistance && (flags(next)&(ESCAPE|PONY))==0) {
+                best = next;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Gets the number of Moore neighborhood moves between two cells on an 
+     * empty board.
+     * @param a One cell, x*size + y
+     * @param b The other cell
+     * @return the distance
+     */
+    private int distance(int a, int b) {
+        return Math.max(Math.abs(a/size-b/size), Math.abs(a%size-b%size));
+    }
+    
+    /**
+     * Gets the number of ponies that have currently been saved.
+     * @return the number saved
+     */
+    public int getPoniesSaved() {
+        return initialPonyCount - this.ponyCount();
+    }
+    
     /**
      * Gets the percentage of ponies that have currently been saved.
      * @return the percentage
      */
-    private int getPonyPercent() {
-        int poniesSaved = initialPonyCount - this.ponyCount();
+    public int getPonyPercent() {
+        int poniesSaved = this.getPoniesSaved();
         double percent = 100*((double)poniesSaved)/initialPonyCount;
         return (int)percent;
     }
     
     /**
      * Removes a pony from the board.
-     * @param killSpot the int[x,y] location from which to remove a pony
-     */
-    private void removePony(int[] killSpot) {
-        for (Iterator<int[]> i = ponies.iterator(); i.hasNext();) {
-            int[] pony = i.next();
-            if (pony[0]==killSpot[0]&&pony[1]==killSpot[1]) {
-                i.remove();
-                return;
+     * @param cell The cell, x*size + y, from which to remove a pony
+     */
+    private void removePony(int cell) {
+        int count = board.getPonyCount();
+        for (int i=0; i<count && i<Long.SIZE; i++) {
+            if (board.getPonyCell(i)==cell && (ponyMask&(1L<<i))!=0) {
+                ponyMask &= ~(1L<<i);
+                break;
             }
         }
+        ponyCount--;
+        //Only clear the cell if that was the last pony in it
+        if (poniesTaken.add(cell, 1)==board.getPonyCount(cell)) 
+            clearFlag(cell, PONY);
     }    
     
+    /**
+     * Determines whether or not nothing but maybe the burgler is in a cell
+     * right now. Right after a reset that's the board's start, so these are
+     * the cells the burgler can be started in.
+     * @param cell The cell, x*size + y, on the board
+     * @return if the cell is free
+     */
+    public boolean isFree(int cell) {
+        return flags(cell)==0;
+    }
+    
     /**
      * Returns whether or not this spot is occupied. For initializing burgler
      * @param x the x coordinate
@@ -267,257 +605,207 @@ public class Environment {
      * @return if there's something here
      */
     private boolean hasAnything(int x, int y) {
-        for (List<int[]> list : this.getLists())
-            if (this.hasThing(x, y, list)) return true;
-        return false;
+        if (burgler>=0 && this.hasBurgler(x, y)) return true;
+        return board.onBoard(x, y) && flags(x*size+y)!=0;
     }
-
+    
     /**
-     * Determines whether or not there's a thing from the list here.
+     * Determines whether or not the occupancy grid has a flag set here.
      * @param x The x coordinate
      * @param y the y coordinate
-     * @param list The big list of things
-     * @return if there is an element of list here
-     */
-    private boolean hasThing(int x, int y, Collection<int[]> list) {
-        for (int[] item : list)  {
-            List<Integer> spotList = intArrayToObjList(item);
-            if (item[0]==x&&item[1]==y) return true;
-        }
-        return false;
-    }
-    
-    /**
-     * Gets a set of lists of things that can occupy board squares.
-     * @return a Set of Lists of int[]s representing occupied board spots.
-     */
-    private Set<List<int[]>> getLists() {
-        Set<List<int[]>> lists = new HashSet<>();
-        lists.add(this.ponies);
-        lists.add(this.trolls);
-        lists.add(this.obstructions);
-        lists.add(pointAsList(this.escape));
-        //This could be called to initialize burgler, so check if he's around
-        if (burgler!=null) lists.add(pointAsList(this.burgler));
-        return lists;
-    }
-    
-    /**
-     * Returns the given location as a list of int[]s. For using the 
-     * point as an list of arbitrary things that occupy space on the board.
-     * Eg, the burgler or escape location.
-     * @return the point as a list
-     */
-    private ArrayList<int[]> pointAsList(int[] point) {
-        ArrayList<int[]> pointList = new ArrayList<>();
-        pointList.add(point);
-        return pointList;
-    }
-    
-    /**
-     * Gets the set of valid moves for the burgler. Do not use, it's cheating.
-     * @return a set of integers representing moves:
-     *         7 0 1    "B" is burgler location and the integers are the
-     *         6 B 2    encodings for moving to the squares in which the  
-     *         5 4 3    integers reside.
+     * @param flag The occupant's flag
+     * @return if there is an occupant of that type here
      */
-    public List<Integer> getValidMoves() {
-        List<Integer> moves = new ArrayList<>();
-        for (int i=0; i<8; i++) 
-            if (validMove(i, burgler)) 
-                moves.add(i);
-        return moves;
-    }
-
-    /**
-     * Parses an arbitrary input file line. Splits the line into useful tokens
-     * passes it along to specific line handlers.
-     * @param line The string to parse as a line
-     * @param lineNum the number of this specific line
-     */
-    private void parseLine(String line, int lineNum) {
-        //Split line and parse each token as an int
-        String[] splitLine = line.split(" ");
-        int[] splitLineInts = new int[splitLine.length];
-        for (int i=0; i<splitLine.length; i++) 
-            splitLineInts[i] = Integer.parseInt(splitLine[i]);
-        
-        //Pass to specific line handlers
-        switch (lineNum) {
-            case 1:
-                parseSizeTrollPonyCount(splitLineInts);
-                break;
-            case 2:
-                parseEscape(splitLineInts);
-                break;
-            case 3:
-                parsePonies(splitLineInts);
-                break;
-            case 4:
-                parseObstructions(splitLineInts);
-                break;
-            case 5:
-                parseTrolls(splitLineInts);
-                break;
-        }
+    private boolean hasFlag(int x, int y, byte flag) {
+        if (!board.onBoard(x, y)) return false;
+        if (tiles!=null) return tiles.has(x, y, flag);
+        return (occupancy[x*size+y]&flag)!=0;
     }
     
     /**
-     * Parses the first line. Sets the size of the board and initializes 
-     * troll/pony list sizes.
-     * @param splitLine the line to parse, split into tokens
+     * Gets every occupancy flag set in a cell, from whichever grid we have.
+     * @param cell The cell, x*size + y, on the board
+     * @return the flags
      */
-    private void parseSizeTrollPonyCount(int[] splitLine) {
-        this.size = splitLine[0];
-        //Get troll and pony counts
-        int trollCount = splitLine[1];
-        int ponyCount = splitLine[2];
-        //Init size of troll/pony lists
-        this.trolls = new ArrayList<>(trollCount);
-        this.ponies = new ArrayList<>(ponyCount);
-        this.initialPonyCount = ponyCount;
-        this.obstructions = new ArrayList<>();
+    private byte flags(int cell) {
+        if (tiles!=null) return tiles.get(cell/size, cell%size);
+        return occupancy[cell];
     }
     
     /**
-     * Parses the second line. Sets the escape location
-     * @param splitLine the line to parse, split into integer tokens
+     * Sets an occupancy flag in a cell.
+     * @param cell The cell, x*size + y, on the board
+     * @param flag The flag
      */
-    private void parseEscape(int[] splitLine) {
-        this.escape = new int[]{splitLine[0], splitLine[1]};
+    private void setFlag(int cell, byte flag) {
+        if (tiles!=null) tiles.set(cell/size, cell%size, flag);
+        else occupancy[cell] |= flag;
     }
     
     /**
-     * Parses the third line. Sets pony locations
-     * @param splitLine the line to parse, split into integer tokens
+     * Clears an occupancy flag in a cell.
+     * @param cell The cell, x*size + y, on the board
+     * @param flag The flag
      */
-    private void parsePonies(int[] splitLine) {
-        parsePairs(splitLine, ponies);
+    private void clearFlag(int cell, byte flag) {
+        if (tiles!=null) tiles.clear(cell/size, cell%size, flag);
+        else occupancy[cell] &= ~flag;
     }
     
     /**
-     * Parses the fourth line. Sets obstruction locations
-     * @param splitLine the line to parse, split into integer tokens
+     * Changes the count of trolls in a cell, once trolls move.
+     * @param cell The cell, x*size + y
+     * @param delta The change
+     * @return the new count
      */
-    private void parseObstructions(int[] splitLine) {
-        parsePairs(splitLine, obstructions);
-        //If the pair -1 -1 was added, it means there aren't any obstructions
-        for (int[] i : obstructions) if (i[0]==-1) {
-            obstructions = new ArrayList<>();
-            break;
+    private int countTroll(int cell, int delta) {
+        if (trollCountMap!=null) { //Forget empty cells to stay small
+            int count = trollCountMap.add(cell, delta);
+            if (count==0) trollCountMap.remove(cell);
+            return count;
         }
+        return trollCounts[cell] += delta;
     }
     
     /**
-     * Parses the fifth line. Sets troll locations
-     * @param splitLine the line to parse, split into integer tokens
+     * Gets the moves the burgler can make from where it is, ie the ones 
+     * that don't leave the board or hit an obstruction, so an agent can 
+     * pick only among those instead of learning the walls by bumping 
+     * into them.
+     * @return bit i is set if move i is valid
      */
-    private void parseTrolls(int[] splitLine) {
-        parsePairs(splitLine, trolls);
+    public int getValidMoveMask() {
+        return board.validMoveMask(getBurglerCell());
     }
     
     /**
-     * Parses a line that is a series of pairs that match in order. Adds it to
-     * a specified ArrayList of pairs (int[2]s).
-     * @param splitLine the line to parse, split into integer tokens
-     * @param list The list of pairs to add pairs to
+     * Gets the set of valid moves for the burgler. Do not use, it's cheating.
+     * @return a set of integers representing moves:
+     *         7 0 1    "B" is burgler location and the integers are the
+     *         6 B 2    encodings for moving to the squares in which the  
+     *         5 4 3    integers reside.
      */
-    private void parsePairs(int[] splitLine, List<int[]> list) {
-        for (int i=0; i<splitLine.length; i+=2)
-            list.add(new int[]{splitLine[i], splitLine[i+1]});
+    public List<Integer> getValidMoves() {
+        List<Integer> moves = new ArrayList<>();
+        int mask = board.validMoveMask(getBurglerCell());
+        for (int i=0; i<NEIGHBOR_COUNT; i++) 
+            if ((mask&(1<<i))!=0) 
+                moves.add(i);
+        return moves;
     }
-    
+
     /**
      * Prints a fancy fancy ASCII representation of the board with a score and 
-     * pony report. New line after.
+     * pony report. New line after. Large boards only get the burgler's spot
+     * instead of the board. The whole frame is rendered first, then written 
+     * to each stream in one go.
      * @param outs An array of PrintStreams to print to
      */
     public void print(PrintStream[] outs) {
-        this.printBorder(outs);
-        for (int i=this.size-1; i>=0; i--)
-            this.printRow(i, outs);
-        this.printBorder(outs);
-        multiPrintln("Burgler score: " + this.getScore()  +"; Pony report: " + 
-                        this.getPonyPercent() + "% of ponies saved!", outs);
+        int length = this.render();
+        for (int i=0; i<outs.length; i++) outs[i].write(frame, 0, length);
+    }
+    
+    /**
+     * Renders what print() prints into a reusable buffer, which getFrame() 
+     * returns. Every cell comes from the occupancy grid and the path's 
+     * visited set, then the burgler is drawn over it, so nothing is searched
+     * per cell.
+     * @return the length of the frame, in bytes
+     */
+    public int render() {
+        String summary = "Burgler score: " + this.getScore() + 
+                            "; Pony report: " + this.getPonyPercent() + 
+                            "% of ponies saved!\n";
+        if (board.isLarge()) //Far too big to draw, so just say where
+            summary = "Burgler at " + burgler/size + ", " + burgler%size + 
+                        " after " + moves + " moves\n" + summary;
+        int lineBytes = FRAME_EDGE_BYTES*2 + 2*size + 1;
+        int gridBytes = board.isLarge() ? 0 : (size+2)*lineBytes;
+        int length = gridBytes + summary.length();
+        if (frame==null || frame.length<length) frame = new byte[length];
+        
+        if (!board.isLarge()) {
+            //Border rows, then a row per y from the top down
+            renderBorder(0);
+            for (int y=size-1; y>=0; y--) {
+                int pos = (size-y)*lineBytes;
+                pos = renderEdge(pos);
+                for (int x=0; x<size; x++) {
+                    int cell = x*size+y;
+                    byte f = flags(cell);
+                    //Path goes over trolls and ponies, not obstructions or 
+                    //the escape
+                    boolean path = (f&(OBSTRUCTION|ESCAPE))==0 && 
+                                    burglerPath.visited(cell);
+                    frame[pos++] = path ? (byte)'X' : cellChar(f);
+                    frame[pos++] = ' ';
+                }
+                pos = renderEdge(pos);
+                frame[pos] = '\n';
+            }
+            renderBorder((size+1)*lineBytes);
+            frame[cellOffset(burgler/size, burgler%size, lineBytes)] = 'B';
+        }
+        for (int i=0; i<summary.length(); i++) 
+            frame[gridBytes+i] = (byte)summary.charAt(i);
+        return length;
     }
     
     /**
-     * Prints a really fancy border row for the board. Ends the line.
-     * @param outs An array of PrintStreams to print to
+     * Gets the buffer the last render() went into. It's reused, so it's 
+     * only good until the next render().
+     * @return the frame buffer
      */
-    private void printBorder(PrintStream[] outs) {
-        printAbstractRow(0, outs, true);
+    public byte[] getFrame() {
+        return this.frame;
     }
     
     /**
-     * Prints an extra fancy row for the board. Ends the line.
-     * @param row The row to print
-     * @param outs An array of PrintStreams to print to
+     * Renders a really fancy border row, all #s, into the frame.
+     * @param pos Where the row starts
      */
-    private void printRow(int row, PrintStream[] outs) {
-        printAbstractRow(row, outs, false);
+    private void renderBorder(int pos) {
+        int end = pos + FRAME_EDGE_BYTES*2 + 2*size;
+        Arrays.fill(frame, pos, end, (byte)'#');
+        frame[end] = '\n';
     }
     
     /**
-     * Prints a very fancy row for the board, but it could be a border. 
-     * Ends the line.
-     * @param row The row to print
-     * @param outs An array of PrintStreams to print to
+     * Renders a super fancy left-or-right edge piece into the frame.
+     * @param pos Where the edge starts
+     * @return where the edge ends
      */
-    private void printAbstractRow(int row, PrintStream[] outs, boolean border) {
-        //The following prints end with a space
-        this.printEdge(outs, border);
-        this.printCells(row, outs, border);
-        this.printEdge(outs, border);
-        multiPrintln(outs);
-    }
-    
-    /** 
-     * Prints a super fancy left-or-right edge piece. Ends with a space.
-     * @param outs An array of PrintStreams to print to
-     * @param border Whether or not this is an edge surroudning a border
-     */
-    private void printEdge(PrintStream[] outs, boolean border) {
-        String s = null;
-        if (border) s = "###";
-        else s = "## ";
-        multiPrint(s, outs);
+    private int renderEdge(int pos) {
+        frame[pos++] = '#';
+        frame[pos++] = '#';
+        frame[pos++] = ' ';
+        return pos;
     }
     
     /**
-     * Prints a pretty fancy sequence of cells in the row. Ends with a space.
-     * @param row The row number
-     * @param outs The array of PrintStreams to print to
-     * @param border A flag to make this print the same length, but all #s.
-     */
-    private void printCells(int row, PrintStream[] outs, boolean border) {
-        char[] cells = this.getRow(row);
-        String s = null;
-        for (int i=0; i<cells.length; i++) {
-            if (border) s = "##"; 
-            else s = cells[i]+" ";
-            multiPrint(s, outs);
-        }
-        
+     * Gets where a cell's character is in the frame.
+     * @param x The cell's x coordinate
+     * @param y The cell's y coordinate
+     * @param lineBytes The length of a rendered row
+     * @return the offset
+     */
+    private int cellOffset(int x, int y, int lineBytes) {
+        return (size-y)*lineBytes + FRAME_EDGE_BYTES + 2*x;
     }
     
     /**
-     * Gets a row as an array of characters for printing with path. Path is 
-     * seen over trolls and ponies.
-     * @param row The row to get
+     * Gets the character a cell is drawn with, ignoring the burgler and its 
+     * path. Obstructions are seen over the escape, then trolls and ponies.
+     * @param flags The cell's occupancy flags
+     * @return the character
      */
-    private char[] getRow(int row) {
-        char[] array = new char[size];
-        for (int col=0; col<array.length; col++) {
-            if (this.hasBurgler(col, row)) array[col] = 'B';
-            else if (this.hasObstruction(col, row)) array[col] = '1';
-            else if (this.hasEscape(col, row)) array[col] = 'E';
-            else if (this.hasPath(col, row)) array[col] = 'X';
-            else if (this.hasTroll(col, row)) array[col] = 'T';
-            else if (this.hasPony(col, row)) array[col] = 'P';
-            else array[col] = '-';
-        }
-        return array;
+    private static byte cellChar(byte flags) {
+        if ((flags&OBSTRUCTION)!=0) return '1';
+        if ((flags&ESCAPE)!=0) return 'E';
+        if ((flags&TROLL)!=0) return 'T';
+        if ((flags&PONY)!=0) return 'P';
+        return '-';
     }
     
     /**
@@ -557,17 +845,4 @@ public class Environment {
     public static void multiPrint(String s, PrintStream[] outs) {
         for (int i=0; i<outs.length; i++) outs[i].print(s);
     }
-    
-    //Prints the error message associated with err and exits the program.
-    private static void error(String err) {
-        String message = null;
-        switch (err) {
-            case "inputLen":
-                message = "Input file doesn't have enough lines. See the" +
-                            "README for the input file format.";
-                break;
-        }
-        System.out.println(message);
-        System.exit(1);
-    }
 }
\ No newline at end of file
@@ -0,0 +1,150 @@
+import java.io.*;
+
+/**
+ * An append-only binary log of episodes, for looking at or replaying runs
+ * after the fact. Each episode is its start cell followed by every move
+ * tried and the reward it got, so a long run costs five bytes a move,
+ * written through a buffer.
+ * Format, big endian: a header of FILE_MAGIC, FILE_VERSION and the board
+ * size as ints, then per episode:
+ *     int     start cell, x*size + y
+ *     per move tried:
+ *         byte    the move (0-7), plus INVALID if it hit a wall
+ *         int     the reward, only if the move was valid
+ *     byte    END
+ *     byte    how it ended: CUT_SHORT, ESCAPED or DIED
+ * Run it on a log to get a CSV line per episode:
+ *     java EpisodeLog <file>
+ */
+public class EpisodeLog {
+    private static int FILE_MAGIC = 0x45504C47; //"EPLG"
+    private static int FILE_VERSION = 1;
+    private static int BUFFER_BYTES = 1<<16;
+    private static int INVALID = 8;
+    private static int END = 0xFF;
+    public static int CUT_SHORT = 0;
+    public static int ESCAPED = 1;
+    public static int DIED = 2;
+
+    private DataOutputStream out;
+    private boolean inEpisode;
+
+    /**
+     * Creates the log file and writes its header.
+     * @param file The file to log to
+     * @param size The width of the board
+     * @throws IOException if the file can't be written
+     */
+    public EpisodeLog(File file, int size) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(file), BUFFER_BYTES));
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(size);
+    }
+
+    /**
+     * Starts logging an episode.
+     * @param cell The burgler's start cell, x*size + y
+     */
+    public void startEpisode(int cell) {
+        try {
+            out.writeInt(cell);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        inEpisode = true;
+    }
+
+    /**
+     * Logs a move tried in the current episode.
+     * @param dir The move, 0-7
+     * @param reward The reward it got
+     * @param valid If the move was valid. Invalid moves have no reward
+     */
+    public void move(int dir, int reward, boolean valid) {
+        try {
+            if (!valid) out.writeByte(dir|INVALID);
+            else {
+                out.writeByte(dir);
+                out.writeInt(reward);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Finishes logging the current episode, if there is one.
+     * @param outcome How it ended: CUT_SHORT, ESCAPED or DIED
+     */
+    public void endEpisode(int outcome) {
+        if (!inEpisode) return;
+        try {
+            out.writeByte(END);
+            out.writeByte(outcome);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        inEpisode = false;
+    }
+
+    /**
+     * Ends any episode still going as cut short, then flushes and closes
+     * the file.
+     * @throws IOException if the file can't be written
+     */
+    public void close() throws IOException {
+        endEpisode(CUT_SHORT);
+        out.close();
+    }
+
+    /**
+     * Prints a CSV summary of each episode in a log: where it started, how
+     * many moves were tried and how many were invalid, the return and how
+     * it ended. A log whose last episode wasn't finished (eg the run was
+     * killed) is read up to that episode.
+     * @param args The log file
+     * @throws IOException if the log can't be read or isn't an episode log
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length!=1) {
+            System.err.println("Usage: java EpisodeLog <file>");
+            System.exit(1);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                            new FileInputStream(args[0]), BUFFER_BYTES))) {
+            if (in.readInt()!=FILE_MAGIC || in.readInt()!=FILE_VERSION)
+                throw new IOException("Not an episode log: " + args[0]);
+            int size = in.readInt();
+            System.out.println("episode,startX,startY,moves,invalid,return," +
+                                "outcome");
+            String[] outcomes = {"cut short", "escaped", "died"};
+            for (long episode=0; ; episode++) {
+                int start;
+                try {
+                    start = in.readInt();
+                } catch (EOFException e) {
+                    break; //No more episodes
+                }
+                long moves = 0, invalid = 0, total = 0;
+                int outcome;
+                try {
+                    for (int move=in.readUnsignedByte(); move!=END;
+                            move=in.readUnsignedByte()) {
+                        moves++;
+                        if ((move&INVALID)!=0) invalid++;
+                        else total += in.readInt();
+                    }
+                    outcome = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    break; //Unfinished, the log wasn't closed
+                }
+                System.out.println(episode + "," + start/size + "," +
+                                    start%size + "," + moves + "," +
+                                    invalid + "," + total + "," +
+                                    outcomes[outcome]);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.util.*;
+import java.util.random.*;
+import java.io.*;
+
+/**
+ * Evaluates a trained greedy policy by rolling it out from many starts
+ * instead of one: every free cell on the board, or a random sample of them
+ * if there are more than asked for. The rollouts are spread over several
+ * threads, each with its own Environment and random stream split off one
+ * seed, all reading the one Q table through QTable.peekBestMoves(), which
+ * writes nothing, so the table mustn't be trained while they run. Each
+ * thread takes every threads'th start and the totals are added up at the
+ * end, so a seed and thread count always give the same report.
+ * The policy picks at random among the best legal moves, like a greedy
+ * Agent with action masks, or among all the legal moves in a state that
+ * was never reached. A rollout ends when the burgler escapes or meets a
+ * troll, or is cut short after the step cap or once it's caught in a loop:
+ * back in the same cell with the same ponies left more than LOOP_VISITS
+ * times. With trolls standing still and one best move per state, one
+ * revisit would prove a loop, but ties and moving trolls make the path
+ * random, so a few are let through first.
+ */
+public class Evaluator {
+    public static int LOOP_VISITS = 3;
+    public static int MAX_STEP_CAP = 1<<20;
+    public static int GREEDY_MOVES_PER_CELL = 1; //For defaultStepCap()
+    //What each thread counts, a long per rollout outcome and total
+    private static int ESCAPED = 0;
+    private static int DIED = 1;
+    private static int LOOPED = 2;
+    private static int CAPPED = 3;
+    private static int RETURNS = 4; //Sum of every rollout's return
+    private static int ESCAPE_STEPS = 5; //Sum of the escaped ones' steps
+    private static int PONY_PERCENTS = 6; //Sum of ponies saved, in %
+    private static int TALLIES = 7;
+
+    private Board board;
+    private QTable q;
+    private String trollMovement;
+    private int stepCap;
+    private long[] totals = new long[TALLIES];
+    private int rollouts;
+    private double seconds;
+
+    /**
+     * Sets up an evaluator for a trained Q table.
+     * @param board The board the table was trained on
+     * @param q The Q table, which mustn't be written to while evaluating
+     * @param trollMovement How the trolls move, as for
+     * Environment.setTrollMovement()
+     * @param stepCap The most moves a rollout gets before it's cut short
+     */
+    public Evaluator(Board board, QTable q, String trollMovement,
+                        int stepCap) {
+        this.board = board;
+        this.q = q;
+        this.trollMovement = trollMovement;
+        this.stepCap = stepCap;
+    }
+
+    /**
+     * Gets the step cap for greedy runs, rollouts or not, if none is given:
+     * enough moves to go through every cell GREEDY_MOVES_PER_CELL times, up
+     * to MAX_STEP_CAP on big boards, so a policy going round in circles
+     * can't run for hours or overflow its score.
+     * @param board The board to evaluate on
+     * @return the cap
+     */
+    public static int defaultStepCap(Board board) {
+        long cells = (long)board.getSize()*board.getSize();
+        return (int)Math.min(GREEDY_MOVES_PER_CELL*cells, MAX_STEP_CAP);
+    }
+
+    /**
+     * Rolls the greedy policy out from up to some number of free starts,
+     * then adds the outcomes to the totals. Returns once every thread is
+     * done.
+     * @param starts The most starts to roll out from
+     * @param threads The number of threads to spread them over
+     * @param seeds The generator to split each thread's stream off, and
+     * the sample of starts if there are too many
+     */
+    public void evaluate(int starts, int threads, SplittableRandom seeds) {
+        long start = System.nanoTime();
+        Environment[] worlds = new Environment[threads];
+        SplittableRandom[] streams = new SplittableRandom[threads];
+        for (int i=0; i<threads; i++) {
+            //Split here, in order, so each thread's stream is fixed
+            streams[i] = seeds.split();
+            worlds[i] = new Environment(board, streams[i]);
+            worlds[i].setTrollMovement(trollMovement);
+        }
+        int[] cells = pickStarts(worlds[0], starts, seeds.split());
+        long[][] tallies = new long[threads][TALLIES];
+        Thread[] workers = new Thread[threads];
+        for (int i=0; i<threads; i++) {
+            int first = i;
+            workers[i] = new Thread(() -> {
+                for (int k=first; k<cells.length; k+=threads)
+                    rollout(worlds[first], cells[k], streams[first],
+                            tallies[first]);
+            }, "evaluator-" + i);
+            workers[i].start();
+        }
+        try {
+            for (Thread worker : workers) worker.join();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("Evaluation was interrupted", e);
+        }
+        for (long[] tally : tallies)
+            for (int t=0; t<TALLIES; t++) totals[t] += tally[t];
+        rollouts += cells.length;
+        seconds += (System.nanoTime()-start)/1e9;
+    }
+
+    /**
+     * Picks the starts to roll out from. On boards small enough to list
+     * every free cell, that's all of them, or a uniform sample without
+     * repeats if there are too many. Large boards have too many cells to
+     * list, so free ones are drawn at random instead, repeats and all.
+     * @param world An environment right after a reset, to ask what's free
+     * @param starts The most starts to pick
+     * @param r The random generator to sample with
+     * @return the start cells, x*size + y
+     */
+    private int[] pickStarts(Environment world, int starts,
+                        RandomGenerator r) {
+        int cells = board.getSize()*board.getSize();
+        if (board.isLarge()) {
+            int[] picked = new int[starts];
+            for (int i=0; i<starts; ) {
+                int cell = r.nextInt(cells);
+                if (world.isFree(cell)) picked[i++] = cell;
+            }
+            return picked;
+        }
+        int[] free = new int[cells];
+        int count = 0;
+        for (int cell=0; cell<cells; cell++)
+            if (world.isFree(cell)) free[count++] = cell;
+        //Partly shuffle, so the first starts cells are a uniform sample
+        for (int i=0; i<starts && i<count; i++) {
+            int j = i+r.nextInt(count-i);
+            int swap = free[i];
+            free[i] = free[j];
+            free[j] = swap;
+        }
+        return Arrays.copyOf(free, Math.min(starts, count));
+    }
+
+    /**
+     * Rolls the greedy policy out from one start and counts how it ended.
+     * @param world The thread's own environment
+     * @param start The start cell, x*size + y
+     * @param r The thread's own random generator
+     * @param tally The thread's counts to add to
+     */
+    private void rollout(Environment world, int start, RandomGenerator r,
+                        long[] tally) {
+        world.reset(r, start);
+        int everyMove = (1<<Environment.NEIGHBOR_COUNT)-1;
+        LongIntMap visits = new LongIntMap(64);
+        int ponies = world.ponyCount();
+        int steps = 0;
+        for (; !world.hasTerm(); steps++) {
+            if (steps==stepCap) {
+                tally[CAPPED]++;
+                break;
+            }
+            //Ponies are never put back, so a state can only come round
+            //again before the next one is taken
+            if (world.ponyCount()!=ponies) {
+                ponies = world.ponyCount();
+                visits.clear();
+            }
+            int cell = world.getBurglerCell();
+            int seen = visits.get(cell, 0)+1;
+            if (seen>LOOP_VISITS) {
+                tally[LOOPED]++;
+                break;
+            }
+            visits.put(cell, seen);
+            int legal = world.getValidMoveMask();
+            if (legal==0) legal = everyMove; //Boxed in, so anything
+            int moves = q.peekBestMoves(cell, world.getPonyMask(), legal);
+            if (moves==0) moves = legal; //Never reached, so anything legal
+            int selection = r.nextInt(Integer.bitCount(moves));
+            for (int i=0; i<selection; i++) moves &= moves-1;
+            world.step(Integer.numberOfTrailingZeros(moves));
+        }
+        if (world.hasEscaped()) {
+            tally[ESCAPED]++;
+            tally[ESCAPE_STEPS] += steps;
+        } else if (world.hasTerm()) tally[DIED]++;
+        tally[RETURNS] += world.getScore();
+        tally[PONY_PERCENTS] += world.getPonyPercent();
+    }
+
+    /**
+     * Prints the totals so far: how often the burgler escaped, was killed
+     * by a troll or was cut short, the mean return, the mean steps taken
+     * by the rollouts that escaped and the mean percentage of ponies saved.
+     * @param outs The PrintStreams to print to
+     */
+    public void report(PrintStream[] outs) {
+        Environment.multiPrintln("Evaluated the greedy policy from " +
+            rollouts + " starts in " + seconds + "s (step cap " + stepCap +
+            "):", outs);
+        Environment.multiPrintln("    Escaped: " + percent(ESCAPED) +
+            "%, in " + mean(totals[ESCAPE_STEPS], totals[ESCAPED]) +
+            " steps on average", outs);
+        Environment.multiPrintln("    Killed by trolls: " + percent(DIED) +
+            "%", outs);
+        Environment.multiPrintln("    Caught in a loop: " + percent(LOOPED) +
+            "%, hit the step cap: " + percent(CAPPED) + "%", outs);
+        Environment.multiPrintln("    Mean return: " +
+            mean(totals[RETURNS], rollouts) + ", ponies saved: " +
+            mean(totals[PONY_PERCENTS], rollouts) + "%", outs);
+    }
+
+    /**
+     * Gets the percentage of rollouts with one of the outcomes.
+     * @param outcome ESCAPED, DIED, LOOPED or CAPPED
+     * @return the percentage, to one decimal place
+     */
+    private double percent(int outcome) {
+        return mean(100*totals[outcome], rollouts);
+    }
+
+    /**
+     * Divides a sum by a count, to one decimal place.
+     * @param sum The sum
+     * @param count The count
+     * @return the mean, or 0 if the count is 0
+     */
+    private static double mean(long sum, long count) {
+        if (count==0) return 0;
+        return Math.round(10.0*sum/count)/10.0;
+    }
+}
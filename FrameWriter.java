@@ -0,0 +1,98 @@
+import java.io.*;
+
+/**
+ * Writes rendered frames to one stream from a background thread, so a slow
+ * stream (a terminal, a busy disk) never holds up training. Only one frame
+ * waits at a time: if a new frame comes in while the last one is still
+ * waiting, the waiting one is dropped and counted, so a sink that falls
+ * behind just shows fewer frames.
+ */
+public class FrameWriter {
+    private PrintStream out;
+    private Thread writer;
+    //The frame waiting to be written, and the one being written. Swapped
+    //under the lock, so each is only touched by one thread at a time
+    private byte[] waiting = new byte[0];
+    private int waitingLength = -1; //-1 if nothing is waiting
+    private byte[] writing = new byte[0];
+    private long dropped;
+    private boolean closed;
+
+    /**
+     * Starts a background writer for a stream.
+     * @param out The stream to write frames to
+     * @param name The writer thread's name
+     */
+    public FrameWriter(PrintStream out, String name) {
+        this.out = out;
+        this.writer = new Thread(this::run, name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Hands a frame over to be written. Never waits for the stream. The
+     * frame is copied, so the caller can reuse its buffer straight away.
+     * @param frame The frame's bytes
+     * @param length How many of them are the frame
+     */
+    public synchronized void offer(byte[] frame, int length) {
+        if (closed) return;
+        if (waitingLength>=0) dropped++; //Replaced before it was written
+        if (waiting.length<length) waiting = new byte[length];
+        System.arraycopy(frame, 0, waiting, 0, length);
+        waitingLength = length;
+        notifyAll();
+    }
+
+    /**
+     * Gets the number of frames dropped because the stream fell behind.
+     * @return the dropped frame count
+     */
+    public synchronized long getDropped() {
+        return this.dropped;
+    }
+
+    /**
+     * Writes any waiting frame, then stops the background thread.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.flush();
+    }
+
+    /**
+     * The background thread: waits for a frame, takes it and writes it,
+     * until closed with nothing left waiting.
+     */
+    private void run() {
+        while (true) {
+            int length;
+            synchronized (this) {
+                while (waitingLength<0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (waitingLength<0) return; //Closed and nothing left
+                byte[] frame = waiting;
+                waiting = writing;
+                writing = frame;
+                length = waitingLength;
+                waitingLength = -1;
+            }
+            out.write(writing, 0, length);
+            out.flush();
+        }
+    }
+}
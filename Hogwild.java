@@ -0,0 +1,138 @@
+import java.util.*;
+import java.util.random.*;
+import java.io.*;
+
+/**
+ * Trains one shared Q table with several worker threads at once, Hogwild
+ * style. Each worker has its own Environment, Agent and random stream, split
+ * off one seed so no generator is shared between threads, and they all
+ * learn into the same lock-free AtomicQTable. The epochs are split between
+ * the workers, and the aggregate moves per second are reported.
+ */
+public class Hogwild {
+
+    /**
+     * Usage: java Hogwild input alpha gamma epochs threads [seed]
+     * A seed fixes each worker's stream, but the workers still race each 
+     * other, so only a single thread run comes out the same every time.
+     * @param args The command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length!=5&&args.length!=6) error("cmd");
+        PrintStream[] outs = QLearn.cmdAndFile(QLearn.OUTPUT_FILENAME);
+        Board board = QLearn.loadBoard(args[0]);
+        if (board.isLarge()) error("large");
+        double alpha = 0, gamma = 0;
+        int epochs = 0, threads = 0;
+        SplittableRandom seeds = new SplittableRandom();
+        try {
+            alpha = Double.parseDouble(args[1]);
+            gamma = Double.parseDouble(args[2]);
+            epochs = Integer.parseInt(args[3]);
+            threads = Integer.parseInt(args[4]);
+            if (args.length==6) 
+                seeds = new SplittableRandom(Long.parseLong(args[5]));
+        } catch (NumberFormatException e) {
+            error("param");
+        }
+        if (threads<1) error("param");
+        QTable q = new AtomicQTable(board.getSize(),
+            Environment.NEIGHBOR_COUNT, Agent.INITIAL_Q);
+
+        long start = System.nanoTime();
+        train(board, q, alpha, gamma, epochs, threads, seeds);
+        double seconds = (System.nanoTime()-start)/1e9;
+        Environment.multiPrintln("Trained " + epochs + " moves on " +
+            threads + " threads in " + seconds + "s: " +
+            (long)(epochs/seconds) + " moves/sec", outs);
+
+        //We're done learning. Run the shared policy greedily from a new spot
+        Environment burglerWorld = new Environment(board, seeds.split());
+        SplittableRandom r = seeds.split();
+        Agent burgler = new Agent(burglerWorld.getBurgler(), board.getSize(),
+            alpha, gamma, q);
+        int cap = Evaluator.defaultStepCap(board);
+        for (int move=0; move<cap && !burglerWorld.hasTerm(); move++)
+            QLearn.runIteration(burglerWorld, burgler, r, "greedy", outs);
+        burglerWorld.print(outs);
+    }
+
+    /**
+     * Runs the explore phase on several threads at once, all learning into
+     * the same Q table. Returns once every worker is done.
+     * @param board The parsed board, shared between workers
+     * @param q The Q table to learn into. Must be safe to share.
+     * @param alpha The learning rate
+     * @param gamma The discount factor
+     * @param epochs The total number of moves, split between the workers
+     * @param threads The number of workers
+     * @param seeds The generator to split each worker's stream off
+     */
+    public static void train(Board board, QTable q, double alpha,
+                        double gamma, int epochs, int threads, 
+                        SplittableRandom seeds) {
+        Thread[] workers = new Thread[threads];
+        for (int i=0; i<threads; i++) {
+            //Spread the remainder over the first few workers
+            int share = epochs/threads + (i<epochs%threads ? 1 : 0);
+            //Split here, in order, so each worker's stream is fixed
+            SplittableRandom r = seeds.split();
+            workers[i] = new Thread(() -> work(board, q, alpha, gamma, share,
+                                    r), "hogwild-" + i);
+            workers[i].start();
+        }
+        try {
+            for (Thread worker : workers) worker.join();
+        } catch (InterruptedException e) {
+            error("interrupted");
+        }
+    }
+
+    /**
+     * A single worker's training loop, the same as QLearn's explore phase.
+     * @param board The parsed board to play on
+     * @param q The shared Q table
+     * @param alpha The learning rate
+     * @param gamma The discount factor
+     * @param epochs The number of moves for this worker to make
+     * @param r The worker's own random generator
+     */
+    private static void work(Board board, QTable q, double alpha,
+                        double gamma, int epochs, SplittableRandom r) {
+        PrintStream[] outs = new PrintStream[0];
+        Environment burglerWorld = new Environment(board, r.split());
+        Agent burgler = new Agent(burglerWorld.getBurgler(), board.getSize(),
+            alpha, gamma, q);
+        for (int epoch=0; epoch<epochs; epoch++)
+            QLearn.runIteration(burglerWorld, burgler, r, "explore", outs);
+    }
+
+    //Prints the error message associated with err and exits the program.
+    private static void error(String err) {
+        String message = null;
+        switch (err) {
+            case "cmd":
+                message = "Please provide five command line parameters: An " +
+                            "input file name, a learning rate, a discount " +
+                            "factor, a number of epochs and a thread count, " +
+                            "then optionally a seed.";
+                break;
+            case "param":
+                message = "Please make sure that the learning rate and " +
+                             "discount factors are expressed as real numbers" +
+                             " and that the epochs, threads and seed are " +
+                             "integers, with at least one thread.";
+                break;
+            case "large":
+                message = "The shared Q table has a slot for every cell, " +
+                            "so large boards aren't supported. Use QLearn " +
+                            "instead.";
+                break;
+            case "interrupted":
+                message = "Training was interrupted.";
+                break;
+        }
+        System.out.println(message);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Reads the integers on the first few lines of an input file straight from
+ * a memory map of it, into one int array per line. Nothing is made per line
+ * or per token along the way, so a line with millions of coordinate pairs
+ * costs only its int array, instead of a String, a split String[] and a
+ * parsed copy of it all. Files bigger than a single map can hold are mapped
+ * a chunk at a time.
+ * Tokens are separated by spaces, tabs and (on the line ends) \r. Anything
+ * that isn't an optionally negative int is a NumberFormatException.
+ */
+public class InputTokenizer {
+    private static long MAP_CHUNK_BYTES = Integer.MAX_VALUE;
+    private static int INITIAL_LINE_INTS = 16;
+
+    private int[][] lines;
+    private int lineCount; //Lines finished so far
+    private int[] tokens = new int[INITIAL_LINE_INTS]; //The current line's
+    private int tokenCount;
+    //The token being read
+    private long value;
+    private boolean negative;
+    private boolean inToken;
+
+    /**
+     * Sets up to read some number of lines.
+     * @param maxLines The number of lines to read
+     */
+    private InputTokenizer(int maxLines) {
+        this.lines = new int[maxLines][];
+    }
+
+    /**
+     * Reads the integers on the first maxLines lines of a file.
+     * @param file The file to read
+     * @param maxLines The number of lines to read. Any after are ignored
+     * @return the integers on each line, in order. There are fewer than
+     * maxLines arrays if the file ran out of lines first
+     * @throws IOException if the file can't be read
+     * @throws NumberFormatException if a token isn't an int
+     */
+    public static int[][] readLines(File file, int maxLines)
+                        throws IOException {
+        InputTokenizer t = new InputTokenizer(maxLines);
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                        StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long pos=0; pos<size && t.lineCount<maxLines;
+                    pos+=MAP_CHUNK_BYTES) {
+                long length = Math.min(MAP_CHUNK_BYTES, size-pos);
+                t.read(channel.map(FileChannel.MapMode.READ_ONLY, pos,
+                                    length));
+            }
+        }
+        //A last line without a newline still counts, if there is one
+        if (t.lineCount<maxLines && (t.inToken || t.negative ||
+                t.tokenCount>0)) t.endLine();
+        return Arrays.copyOf(t.lines, t.lineCount);
+    }
+
+    /**
+     * Reads tokens from a mapped chunk of the file until it runs out or
+     * enough lines are done. A token can carry on into the next chunk.
+     * @param buffer The chunk
+     */
+    private void read(ByteBuffer buffer) {
+        while (buffer.hasRemaining() && lineCount<lines.length) {
+            byte b = buffer.get();
+            if (b>='0' && b<='9') {
+                value = value*10+(b-'0');
+                inToken = true;
+                if (value>Integer.MAX_VALUE+1L) error("is too big");
+            } else if (b=='-' && !inToken && !negative) negative = true;
+            else if (b==' ' || b=='\t' || b=='\r') endToken();
+            else if (b=='\n') endLine();
+            else error("has a '" + (char)b + "' in it");
+        }
+    }
+
+    /**
+     * Finishes the token being read, if there is one, adding it to the line.
+     */
+    private void endToken() {
+        if (!inToken) {
+            if (negative) error("is a lone '-'");
+            return;
+        }
+        long v = negative ? -value : value;
+        if (v>Integer.MAX_VALUE) error("is too big");
+        if (tokenCount==tokens.length)
+            tokens = Arrays.copyOf(tokens, 2*tokenCount);
+        tokens[tokenCount++] = (int)v;
+        value = 0;
+        negative = false;
+        inToken = false;
+    }
+
+    /**
+     * Finishes the line being read, trimming its tokens into its own array.
+     */
+    private void endLine() {
+        endToken();
+        lines[lineCount++] = Arrays.copyOf(tokens, tokenCount);
+        tokenCount = 0;
+        if (tokens.length>INITIAL_LINE_INTS) 
+            tokens = new int[INITIAL_LINE_INTS];
+    }
+
+    /**
+     * Reports a token that isn't an int.
+     * @param problem What's wrong with it
+     */
+    private void error(String problem) {
+        throw new NumberFormatException("A token on line " + (lineCount+1) +
+                                        " " + problem);
+    }
+}
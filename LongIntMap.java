@@ -0,0 +1,142 @@
+import java.util.*;
+
+/**
+ * A map from non-negative long keys to ints, kept in two flat arrays with
+ * open addressing and linear probing, so nothing is boxed or allocated per
+ * entry. The arrays double whenever the map gets half full. Removing a key 
+ * shifts the keys after it back instead of leaving a tombstone, so maps 
+ * that churn don't fill up.
+ */
+public class LongIntMap {
+    private static long EMPTY = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * Initializes an empty map.
+     * @param capacity About how many keys to make room for up front
+     */
+    public LongIntMap(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(capacity, 8)*2-1)*2;
+        this.keys = new long[slots];
+        this.values = new int[slots];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Gets the value for a key.
+     * @param key The key, at least 0
+     * @param missing What to return if the key isn't in the map
+     * @return the value, or missing
+     */
+    public int get(long key, int missing) {
+        int i = slot(key);
+        return keys[i]==EMPTY ? missing : values[i];
+    }
+
+    /**
+     * Sets the value for a key, adding the key if it's new.
+     * @param key The key, at least 0
+     * @param value The value
+     */
+    public void put(long key, int value) {
+        int i = slot(key);
+        values[i] = value;
+        if (keys[i]!=EMPTY) return;
+        keys[i] = key;
+        if (2*++size>keys.length) rehash();
+    }
+
+    /**
+     * Adds to the value for a key, which counts as 0 if it's new.
+     * @param key The key, at least 0
+     * @param delta The amount to add
+     * @return the new value
+     */
+    public int add(long key, int delta) {
+        int i = slot(key);
+        if (keys[i]!=EMPTY) return values[i] += delta;
+        put(key, delta);
+        return delta;
+    }
+
+    /**
+     * Removes a key, if it's in the map.
+     * @param key The key, at least 0
+     */
+    public void remove(long key) {
+        int i = slot(key);
+        if (keys[i]==EMPTY) return;
+        int mask = keys.length-1;
+        //Move back any later key in the run that probing would now miss
+        for (int j=(i+1)&mask; keys[j]!=EMPTY; j=(j+1)&mask) {
+            int home = home(keys[j]);
+            //Keys whose home is cyclically in (i, j] can stay put
+            boolean stays = i<=j ? (home>i && home<=j) : (home>i || home<=j);
+            if (stays) continue;
+            keys[i] = keys[j];
+            values[i] = values[j];
+            i = j;
+        }
+        keys[i] = EMPTY;
+        size--;
+    }
+
+    /**
+     * Removes every key, keeping the arrays at the size they've grown to,
+     * so a map that's emptied and refilled over and over stops allocating.
+     */
+    public void clear() {
+        if (size==0) return;
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Gets the number of keys in the map.
+     * @return the size
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Finds the slot holding a key, or the empty slot where it belongs.
+     * @param key The key
+     * @return the slot
+     */
+    private int slot(long key) {
+        int mask = keys.length-1;
+        int i = home(key);
+        while (keys[i]!=EMPTY && keys[i]!=key) i = (i+1)&mask;
+        return i;
+    }
+
+    /**
+     * Gets the slot a key would be in if nothing else were in the way.
+     * @param key The key
+     * @return the slot
+     */
+    private int home(long key) {
+        return (int)((key*0x9E3779B97F4A7C15L)>>>32)&(keys.length-1);
+    }
+
+    /**
+     * Doubles the arrays, keeping the map at most half full.
+     */
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[2*oldKeys.length];
+        values = new int[2*oldKeys.length];
+        Arrays.fill(keys, EMPTY);
+        for (int i=0; i<oldKeys.length; i++) {
+            if (oldKeys[i]==EMPTY) continue;
+            int j = slot(oldKeys[i]);
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+}
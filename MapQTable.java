@@ -0,0 +1,74 @@
+import java.util.*;
+
+/**
+ * A QTable backed by boxed HashMaps. Only holds states that have been
+ * visited, and invalid moves are simply missing from their state's map.
+ */
+public class MapQTable implements QTable {
+    private double initialQ;
+    private int moveCount;
+    /* double qValue = q.get(state).get(moveCode)
+     * q.get(state) will only exist if we've been there. When we get to a
+     * place, we must ensure that it exists in q before doing anything.
+     */
+    private Map<Integer, Map<Integer, Double>> q;
+
+    /**
+     * Initializes an empty map-backed Q table.
+     * @param moveCount The number of moves each state has
+     * @param initialQ The Q value new moves start with
+     */
+    public MapQTable(int moveCount, double initialQ) {
+        this.q = new HashMap<>();
+        this.moveCount = moveCount;
+        this.initialQ = initialQ;
+    }
+
+    @Override
+    public void ensureExists(int state) {
+        Map<Integer, Double> spot = q.get(state);
+        if (spot==null) {
+            q.put(state, new HashMap<>());
+            spot = q.get(state);
+            //If we get here, the spot was new. Init its actions' Q values.
+            for (int i=0; i<moveCount; i++)
+                spot.put(i, initialQ);
+        }
+    }
+
+    @Override
+    public double get(int state, int move) {
+        return q.get(state).get(move);
+    }
+
+    @Override
+    public void set(int state, int move, double value) {
+        q.get(state).put(move, value);
+    }
+
+    @Override
+    public int peekBestMoves(int cell, long ponyMask, int legal) {
+        if (!q.containsKey(cell)) return 0; //Never reached
+        return QTable.super.peekBestMoves(cell, ponyMask, legal);
+    }
+
+    @Override
+    public boolean isValid(int state, int move) {
+        return q.get(state).containsKey(move);
+    }
+
+    @Override
+    public void invalidate(int state, int move) {
+        q.get(state).remove(move);
+    }
+
+    @Override
+    public int stateCount() {
+        return q.size();
+    }
+
+    @Override
+    public int moveCount() {
+        return this.moveCount;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * n-step Q-learning: each move is backed up towards the rewards of the n 
+ * moves starting with it, plus gamma^n times the best Q value of the state
+ * they end in, instead of one reward and the next state's value. So a 
+ * reward reaches the n moves before it straight away. Like one-step 
+ * Q-learning, the exploring moves in between aren't corrected for.
+ * The last n moves wait in a ring of primitive arrays until their n 
+ * rewards are in. When the episode ends, the ones still waiting are backed
+ * up with what rewards they have, from the state it ended in.
+ */
+public class NStepQ implements Backup {
+    private QTable q;
+    private double alpha;
+    private double gamma;
+    private int n;
+    //The moves waiting on rewards, in a ring, oldest at head
+    private int[] states;
+    private int[] moves;
+    private int[] rewards;
+    private int head;
+    private int count;
+    private int updatedState = -1;
+    private int updatedMove = -1;
+    private int lastResult = -1; //The state the last move ended in
+
+    /**
+     * Sets up with no moves waiting.
+     * @param q The Q table to learn into
+     * @param alpha The learning rate
+     * @param gamma The discount factor
+     * @param n The number of rewards per backup, at least 1
+     */
+    public NStepQ(QTable q, double alpha, double gamma, int n) {
+        this.q = q;
+        this.alpha = alpha;
+        this.gamma = gamma;
+        this.n = n;
+        this.states = new int[n];
+        this.moves = new int[n];
+        this.rewards = new int[n];
+    }
+
+    @Override
+    public double learn(int lastState, int move, int reward, int state) {
+        int tail = (head+count)%n;
+        states[tail] = lastState;
+        moves[tail] = move;
+        rewards[tail] = reward;
+        count++;
+        lastResult = state;
+        if (count<n) {
+            this.updatedState = -1;
+            this.updatedMove = -1;
+            return 0;
+        }
+        return backUpOldest(q.maxQ(state));
+    }
+
+    @Override
+    public int updatedState() {
+        return this.updatedState;
+    }
+
+    @Override
+    public int updatedMove() {
+        return this.updatedMove;
+    }
+
+    @Override
+    public void endEpisode() {
+        while (count>0) backUpOldest(q.maxQ(lastResult));
+        head = 0;
+    }
+
+    /**
+     * Updates the oldest waiting move towards the discounted sum of the 
+     * waiting rewards plus the discounted value of the state they end in, 
+     * then stops waiting on it.
+     * @param value The best Q value of the state the rewards end in
+     * @return the change that was made to the move's Q value
+     */
+    private double backUpOldest(double value) {
+        //Discounted from the oldest move's point of view, latest first
+        double target = value;
+        for (int i=count-1; i>=0; i--) 
+            target = rewards[(head+i)%n]+gamma*target;
+        double delta = q.update(states[head], moves[head], target, alpha);
+        this.updatedState = states[head];
+        this.updatedMove = moves[head];
+        head = (head+1)%n;
+        count--;
+        return delta;
+    }
+}
@@ -0,0 +1,243 @@
+import java.util.*;
+
+/**
+ * Dyna-Q with prioritized sweeping. Remembers the reward and resulting state
+ * of every move the agent has really made, and between real moves replays
+ * remembered moves as simulated Q updates. Replays are ordered by how much
+ * they would change Q (their TD error), biggest first, and whenever a state's
+ * value changes, the moves known to lead into it are queued up too. That
+ * way a reward spreads back along the path to it without the agent having
+ * to walk that path again.
+ * The model holds the latest resulting state of each move, which never
+ * changes on this board, and the average reward, since a pony's reward can
+ * only be collected once per episode. It only has room for the states the
+ * agent has really moved from or into: each gets a slot the first time
+ * it's seen, and the arrays double when they run out, so memory grows with
+ * the part of the board that's explored, not with the board.
+ */
+public class Planner {
+    private static int INITIAL_SLOTS = 64;
+
+    private QTable q;
+    private double alpha;
+    private double gamma;
+    private int steps;
+    private double threshold;
+    private int moveCount;
+
+    //Slots for the states seen so far, in the order they were first seen
+    private LongIntMap slotOf = new LongIntMap(INITIAL_SLOTS);
+    private int[] stateOf; //The state in each slot
+    private int slots;
+
+    //The model, indexed by edge = slot*moveCount + move
+    private int[] next; //Resulting state, or -1 if never tried
+    private double[] reward; //Mean reward seen
+    private int[] tries;
+    //Edges into each state form a linked list: predHead[slot] is the first
+    //edge, predLink[edge] the next one, -1 ends the list
+    private int[] predHead;
+    private int[] predLink;
+
+    //Indexed max-heap of edges, by priority
+    private int[] heap;
+    private int heapSize;
+    private int[] heapPos; //Where each edge is in the heap, or -1
+    private double[] priority;
+
+    /**
+     * Sets up an empty model and queue.
+     * @param q The Q table to plan into
+     * @param alpha The learning rate for simulated updates
+     * @param gamma The discount factor
+     * @param steps The number of simulated updates per real move
+     * @param threshold The smallest TD error worth queuing
+     */
+    public Planner(QTable q, double alpha, double gamma, int steps,
+                        double threshold) {
+        this.q = q;
+        this.alpha = alpha;
+        this.gamma = gamma;
+        this.steps = steps;
+        this.threshold = threshold;
+        this.moveCount = q.moveCount();
+        this.stateOf = new int[0];
+        this.predHead = new int[0];
+        this.next = new int[0];
+        this.reward = new double[0];
+        this.tries = new int[0];
+        this.predLink = new int[0];
+        this.heap = new int[0];
+        this.heapPos = new int[0];
+        this.priority = new double[0];
+        grow(INITIAL_SLOTS);
+    }
+
+    /**
+     * Records a real move in the model and queues it up by its TD error.
+     * To be called after the agent has learned from the move, which may 
+     * have changed the value of the state it was made from, so the moves
+     * known to lead into that state are queued up too.
+     * @param state The state the move was made from
+     * @param move The move code
+     * @param r The reward received
+     * @param result The state the move led to
+     * @param tdError How far the move's Q value was from its one-step 
+     * target before the agent learned from it
+     */
+    public void observe(int state, int move, int r, int result,
+                        double tdError) {
+        int edge = slot(state)*moveCount+move;
+        int resultSlot = slot(result);
+        if (next[edge]<0) { //First time, so link it into result's list
+            predLink[edge] = predHead[resultSlot];
+            predHead[resultSlot] = edge;
+        }
+        next[edge] = result;
+        reward[edge] += (r-reward[edge])/++tries[edge];
+        queue(edge, Math.abs(tdError));
+        queuePredecessors(state);
+    }
+
+    /**
+     * Runs up to the configured number of simulated updates, biggest TD
+     * error first.
+     */
+    public void plan() {
+        for (int i=0; i<steps && heapSize>0; i++) {
+            int edge = pop();
+            int state = stateOf[edge/moveCount], move = edge%moveCount;
+            int result = next[edge];
+            q.update(state, move, reward[edge]+gamma*q.maxQ(result), alpha);
+            queuePredecessors(state);
+        }
+    }
+
+    /**
+     * Queues up the moves known to lead into a state whose value may have
+     * changed, by how far each one now is from its target.
+     * @param state The state
+     */
+    private void queuePredecessors(int state) {
+        double stateValue = q.maxQ(state);
+        int slot = slotOf.get(state, -1);
+        if (slot<0) return; //Never seen, so nothing is known to lead in
+        for (int pred=predHead[slot]; pred>=0; pred=predLink[pred]) {
+            int from = stateOf[pred/moveCount];
+            if (!q.isValid(from, pred%moveCount)) continue;
+            double target = reward[pred]+gamma*stateValue;
+            queue(pred, Math.abs(target-q.get(from, pred%moveCount)));
+        }
+    }
+
+    /**
+     * Gets a state's slot, giving it the next one if it hasn't got one.
+     * @param state The state
+     * @return the slot
+     */
+    private int slot(int state) {
+        int slot = slotOf.get(state, -1);
+        if (slot>=0) return slot;
+        if (slots==stateOf.length) grow(2*slots);
+        stateOf[slots] = state;
+        slotOf.put(state, slots);
+        return slots++;
+    }
+
+    /**
+     * Makes room for more slots, keeping what's already in the model and
+     * the queue. New edges start untried and unqueued.
+     * @param capacity The number of slots to make room for
+     */
+    private void grow(int capacity) {
+        if ((long)capacity*moveCount>Integer.MAX_VALUE)
+            throw new IllegalStateException("Too many states to plan over");
+        int oldEdges = next.length, edges = capacity*moveCount;
+        stateOf = Arrays.copyOf(stateOf, capacity);
+        predHead = Arrays.copyOf(predHead, capacity);
+        Arrays.fill(predHead, slots, capacity, -1);
+        next = Arrays.copyOf(next, edges);
+        Arrays.fill(next, oldEdges, edges, -1);
+        reward = Arrays.copyOf(reward, edges);
+        tries = Arrays.copyOf(tries, edges);
+        predLink = Arrays.copyOf(predLink, edges);
+        heap = Arrays.copyOf(heap, edges);
+        heapPos = Arrays.copyOf(heapPos, edges);
+        Arrays.fill(heapPos, oldEdges, edges, -1);
+        priority = Arrays.copyOf(priority, edges);
+    }
+
+    /**
+     * Queues an edge if its priority is big enough, or raises its priority
+     * if it's already queued.
+     * @param edge The edge
+     * @param p Its priority
+     */
+    private void queue(int edge, double p) {
+        if (p<threshold) return;
+        if (heapPos[edge]>=0) {
+            if (p>priority[edge]) {
+                priority[edge] = p;
+                siftUp(heapPos[edge]);
+            }
+            return;
+        }
+        priority[edge] = p;
+        heap[heapSize] = edge;
+        heapPos[edge] = heapSize;
+        siftUp(heapSize++);
+    }
+
+    /**
+     * Removes the highest priority edge from the heap.
+     * @return the edge
+     */
+    private int pop() {
+        int top = heap[0];
+        heapPos[top] = -1;
+        heapSize--;
+        if (heapSize>0) {
+            heap[0] = heap[heapSize];
+            heapPos[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Moves the edge at i up the heap until its parent outranks it.
+     * @param i The heap position
+     */
+    private void siftUp(int i) {
+        int edge = heap[i];
+        while (i>0) {
+            int parent = (i-1)/2;
+            if (priority[heap[parent]]>=priority[edge]) break;
+            heap[i] = heap[parent];
+            heapPos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = edge;
+        heapPos[edge] = i;
+    }
+
+    /**
+     * Moves the edge at i down the heap until it outranks its children.
+     * @param i The heap position
+     */
+    private void siftDown(int i) {
+        int edge = heap[i];
+        while (true) {
+            int child = 2*i+1;
+            if (child>=heapSize) break;
+            if (child+1<heapSize &&
+                    priority[heap[child+1]]>priority[heap[child]]) child++;
+            if (priority[edge]>=priority[heap[child]]) break;
+            heap[i] = heap[child];
+            heapPos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = edge;
+        heapPos[edge] = i;
+    }
+}
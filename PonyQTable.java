@@ -0,0 +1,182 @@
+import java.util.*;
+
+/**
+ * A QTable whose states are a cell plus which ponies are still on the board,
+ * so a pony that's been taken stops being worth chasing. Pony i is the i'th
+ * pony in the input file, and the ponies left are a bitmask.
+ * When every (cell, ponies left) pair fits in DENSE_MAX_VALUES Q values, the
+ * table is one flat array like DenseQTable, with state = mask*cells + cell.
+ * Otherwise only the pairs actually reached get a state: the pair is packed
+ * into a long key, (mask << cellBits) | cell, and an open-addressed hash
+ * from keys to state numbers hands out states in the order they're reached.
+ * Either way a state costs the same few dozen bytes, however many ponies
+ * there are, so memory grows with the states reached rather than with
+ * 2^ponies. Each state's best moves are kept up to date as it's written 
+ * (see BestMoves).
+ */
+public class PonyQTable implements QTable {
+    public static long DENSE_MAX_VALUES = 1<<22;
+    private static int INITIAL_CAPACITY = 1<<10;
+
+    private int cells;
+    private int cellBits;
+    private int moveCount;
+    private double initialQ;
+    private boolean dense;
+
+    //Rows of moveCount Q values, indexed by state
+    private double[] q;
+    private byte[] validMoves; //bit i is set if move i is still valid
+    private BestMoves bestMoves;
+    private int stateCount;
+
+    //Dense: bitset over states that have been initialized
+    private long[] visited;
+
+    //Sparse: packed key to state
+    private LongIntMap states;
+
+    /**
+     * Initializes a pony-aware Q table for a board.
+     * @param board The board, for its size and pony count
+     * @param moveCount The number of moves each state has, at most 8
+     * @param initialQ The Q value new moves start with
+     */
+    public PonyQTable(Board board, int moveCount, double initialQ) {
+        int ponyCount = board.getInitialPonyCount();
+        if (moveCount>DenseQTable.MAX_MOVE_COUNT)
+            throw new IllegalArgumentException("Pony Q tables support at " +
+                        "most " + DenseQTable.MAX_MOVE_COUNT +
+                        " moves per state");
+        if (ponyCount>maxPonies(board.getSize()))
+            throw new IllegalArgumentException("Pony Q tables support at " +
+                        "most " + maxPonies(board.getSize()) +
+                        " ponies on this board");
+        this.cells = board.getSize()*board.getSize();
+        this.cellBits = Integer.SIZE-Integer.numberOfLeadingZeros(cells-1);
+        this.moveCount = moveCount;
+        this.initialQ = initialQ;
+        long denseStates = 
+            ponyCount<Integer.SIZE ? (long)cells<<ponyCount : -1;
+        this.dense = denseStates>0 && 
+                        denseStates<=DENSE_MAX_VALUES/Math.max(moveCount, 1);
+        if (dense) {
+            this.q = new double[(int)denseStates*moveCount];
+            this.validMoves = new byte[(int)denseStates];
+            this.visited = new long[(int)((denseStates+63)/64)];
+            this.bestMoves = new BestMoves((int)denseStates, moveCount);
+        } else {
+            this.q = new double[INITIAL_CAPACITY*moveCount];
+            this.validMoves = new byte[INITIAL_CAPACITY];
+            this.states = new LongIntMap(INITIAL_CAPACITY);
+            this.bestMoves = new BestMoves(INITIAL_CAPACITY, moveCount);
+        }
+    }
+
+    /**
+     * Gets the most ponies a board can have and still be packed into a key
+     * along with a cell.
+     * @param size The width of the (square) board
+     * @return the pony limit
+     */
+    public static int maxPonies(int size) {
+        int cellBits = Integer.SIZE-Integer.numberOfLeadingZeros(size*size-1);
+        return Long.SIZE-1-cellBits;
+    }
+
+    /**
+     * Determines whether the table is one flat array over every state.
+     * @return if it's dense
+     */
+    public boolean isDense() {
+        return this.dense;
+    }
+
+    @Override
+    public int state(int cell, long ponyMask) {
+        if (dense) return (int)(ponyMask*cells+cell);
+        long key = (ponyMask<<cellBits)|cell;
+        int s = states.get(key, -1);
+        if (s>=0) return s;
+        //If we get here, the pair is new. Give it the next state.
+        s = stateCount;
+        states.put(key, s);
+        initRow(s);
+        return s;
+    }
+
+    @Override
+    public void ensureExists(int state) {
+        if (!dense) return; //Sparse states are made by state()
+        long bit = 1L<<state;
+        if ((visited[state>>>6]&bit)!=0) return;
+        visited[state>>>6] |= bit;
+        initRow(state);
+    }
+
+    @Override
+    public double get(int state, int move) {
+        return q[state*moveCount+move];
+    }
+
+    @Override
+    public void set(int state, int move, double value) {
+        q[state*moveCount+move] = value;
+        bestMoves.set(state, move, value, q, validMoves[state]&0xFF);
+    }
+
+    @Override
+    public int peekBestMoves(int cell, long ponyMask, int legal) {
+        //state() would give a new pair a state, so look the pair up instead
+        if (!dense && states.get((ponyMask<<cellBits)|cell, -1)<0) return 0;
+        return QTable.super.peekBestMoves(cell, ponyMask, legal);
+    }
+
+    @Override
+    public boolean isValid(int state, int move) {
+        return (validMoves[state]&(1<<move))!=0;
+    }
+
+    @Override
+    public void invalidate(int state, int move) {
+        validMoves[state] &= ~(1<<move);
+        bestMoves.invalidate(state, move, q, validMoves[state]&0xFF);
+    }
+
+    @Override
+    public double maxQ(int state) {
+        return Math.max(bestMoves.best(state), -1);
+    }
+
+    @Override
+    public int bestMoves(int state) {
+        return bestMoves.ties(state);
+    }
+
+    @Override
+    public int stateCount() {
+        return this.stateCount;
+    }
+
+    @Override
+    public int moveCount() {
+        return this.moveCount;
+    }
+
+    /**
+     * Initializes a new state's Q values and valid moves, growing the rows
+     * if a sparse table has run out of room.
+     * @param state The new state
+     */
+    private void initRow(int state) {
+        if (state>=validMoves.length) {
+            validMoves = Arrays.copyOf(validMoves, 2*validMoves.length);
+            q = Arrays.copyOf(q, 2*q.length);
+            bestMoves.grow(validMoves.length);
+        }
+        Arrays.fill(q, state*moveCount, (state+1)*moveCount, initialQ);
+        validMoves[state] = (byte)((1<<moveCount)-1);
+        bestMoves.init(state, initialQ, validMoves[state]&0xFF);
+        stateCount++;
+    }
+}
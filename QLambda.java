@@ -0,0 +1,105 @@
+/**
+ * Watkins's Q(lambda): every move made since the agent last explored keeps
+ * an eligibility trace, and each TD error is applied to all of them in 
+ * proportion to their traces. A trace starts at 1 when its move is made 
+ * (replacing, not adding to, any trace the move already had) and decays by
+ * gamma*lambda per move. Once the agent picks a move that isn't greedy, 
+ * what comes after says nothing about the greedy policy's value, so every 
+ * trace is cut.
+ * Traces are sparse: only moves with a trace of at least TRACE_CUTOFF are 
+ * kept, in primitive arrays, so a move costs time in proportion to about 
+ * log(TRACE_CUTOFF)/log(gamma*lambda) recent moves, not the table size. At
+ * most MAX_TRACES are kept, the oldest going first.
+ */
+public class QLambda implements Backup {
+    public static double TRACE_CUTOFF = 0.01;
+    public static int MAX_TRACES = 4096;
+
+    private QTable q;
+    private double alpha;
+    private double gamma;
+    private double decay; //gamma*lambda
+    //The traces, oldest first
+    private int[] states = new int[MAX_TRACES];
+    private int[] moves = new int[MAX_TRACES];
+    private double[] traces = new double[MAX_TRACES];
+    private int count;
+    private int updatedState = -1;
+    private int updatedMove = -1;
+
+    /**
+     * Sets up with no traces.
+     * @param q The Q table to learn into
+     * @param alpha The learning rate
+     * @param gamma The discount factor
+     * @param lambda How much of each TD error goes back a move, 0-1
+     */
+    public QLambda(QTable q, double alpha, double gamma, double lambda) {
+        this.q = q;
+        this.alpha = alpha;
+        this.gamma = gamma;
+        this.decay = gamma*lambda;
+    }
+
+    @Override
+    public void chose(int state, int move) {
+        if (count==0 || !q.isValid(state, move)) return;
+        //Ties with the best move count as greedy
+        if ((q.bestMoves(state)&(1<<move))==0) count = 0;
+    }
+
+    @Override
+    public double learn(int lastState, int move, int reward, int state) {
+        double error = reward+gamma*q.maxQ(state)-q.get(lastState, move);
+        //Apply the error to every older trace, decaying them and dropping 
+        //the faded ones and the move's own, which starts over below
+        int kept = 0;
+        for (int i=0; i<count; i++) {
+            if (states[i]==lastState && moves[i]==move) continue;
+            q.set(states[i], moves[i], 
+                    q.get(states[i], moves[i])+alpha*error*traces[i]);
+            double trace = traces[i]*decay;
+            if (trace<TRACE_CUTOFF) continue;
+            states[kept] = states[i];
+            moves[kept] = moves[i];
+            traces[kept++] = trace;
+        }
+        count = kept;
+        double delta = alpha*error;
+        q.set(lastState, move, q.get(lastState, move)+delta);
+        if (count==MAX_TRACES) drop(); //Make room, oldest first
+        if (decay>=TRACE_CUTOFF) {
+            states[count] = lastState;
+            moves[count] = move;
+            traces[count++] = decay;
+        }
+        this.updatedState = lastState;
+        this.updatedMove = move;
+        return delta;
+    }
+
+    @Override
+    public int updatedState() {
+        return this.updatedState;
+    }
+
+    @Override
+    public int updatedMove() {
+        return this.updatedMove;
+    }
+
+    @Override
+    public void endEpisode() {
+        count = 0;
+    }
+
+    /**
+     * Drops the oldest trace.
+     */
+    private void drop() {
+        System.arraycopy(states, 1, states, 0, count-1);
+        System.arraycopy(moves, 1, moves, 0, count-1);
+        System.arraycopy(traces, 1, traces, 0, count-1);
+        count--;
+    }
+}
@@ -6,83 +6,224 @@
  */
 
 import java.util.*;
+import java.util.random.*;
 import java.io.*;
 
 public class QLearn {
     public static String OUTPUT_FILENAME = "output.txt";
+    public static long TELEMETRY_INTERVAL_MS = 1000;
+    public static long CONVERGENCE_WINDOW_MOVES = 10000;
+    public static long CONVERGENCE_WINDOW_EPISODES = 100;
+    public static long CHECKPOINT_INTERVAL_MOVES = 1000000;
+    public static double PLANNING_THRESHOLD = 1e-4;
+    public static int REPLAY_BATCH = 16;
 
     public static void main(String[] args) {
         //Set up helper variables
-        PrintStream[] outs = cmdAndFile();
-        Random r = new Random();
+        PrintStream[] outs = cmdAndFile(OUTPUT_FILENAME);
+        //Every source of randomness gets its own stream, split off one seed
+        SplittableRandom seeds = makeSeeds(args);
+        SplittableRandom worldRandom = seeds.split(); //Placement, trolls
+        SplittableRandom r = seeds.split(); //The burgler's moves
         //Set up environment, agent, and learning parameters
-        Environment burglerWorld = new Environment(paramCheck(args));
+        //The input file is only parsed once; episodes reset in memory
+        long start = System.nanoTime();
+        Board board = loadBoard(paramCheck(args));
+        Environment.multiPrintln("Loaded " + args[0] + " in " + 
+                        (System.nanoTime()-start)/1000000 + " ms", outs);
+        Environment burglerWorld = new Environment(board, worldRandom);
+        try {
+            burglerWorld.setTrollMovement(option(args, "trolls", "none"));
+        } catch (IllegalArgumentException e) {
+            error("trolls");
+        }
         double alpha = Double.parseDouble(args[1]);
         double gamma = Double.parseDouble(args[2]);
         int epochs = Integer.parseInt(args[3]);
-        Agent burgler = new Agent(burglerWorld.getBurgler(), alpha, gamma, 
-            burglerWorld.NEIGHBOR_COUNT);
+        //Only dense tables can be checkpointed
+        boolean ponyStates = Boolean.parseBoolean(
+                                option(args, "pony-states", "false"));
+        String tableType = option(args, "q-table", "dense");
+        DenseQTable dense = null;
+        QTable q;
+        if (ponyStates) q = makePonyTable(args, board);
+        else if (board.isLarge() || !tableType.equals("dense")) 
+            q = makeVisitedTable(args, tableType);
+        else q = dense = loadOrCreateTable(args, board);
+        Agent burgler = new Agent(burglerWorld.getBurgler(), 
+            burglerWorld.getSize(), alpha, gamma, q);
+        if (ponyStates) burgler.startOver(burglerWorld.getBurglerCell(), 
+                                            burglerWorld.getPonyMask());
+        Planner planner = makePlanner(args, q, alpha, gamma);
+        if (planner!=null) burgler.setPlanner(planner);
+        Backup backup = makeBackup(args, q, alpha, gamma);
+        if (backup!=null) burgler.setBackup(backup);
+        ReplayBuffer replay = makeReplay(args, q, alpha, gamma, seeds);
+        if (replay!=null) burgler.setReplay(replay);
+        Telemetry telemetry = openTelemetry(args, q);
+        Convergence convergence = makeConvergence(args);
+        Checkpointer checkpointer = makeCheckpointer(args, dense);
         
-        //Main loop. Prints board before and when the burgler wins/dies
+        //Main loop. Prints board before and when the burgler wins/dies.
+        //Epochs is a hard cap; stops early if the Q values have converged
         burglerWorld.print(outs);
-        for (int epoch=0; epoch<epochs; epoch++) 
-            runIteration(burglerWorld, burgler, r, "explore", outs, args[0]);
+        Renderer renderer = makeRenderer(args, outs);
+        EpisodeLog episodeLog = openEpisodeLog(args, burglerWorld);
+        boolean masks = Boolean.parseBoolean(
+                            option(args, "action-masks", "true"));
+        int convergedAt = 0;
+        long useful = 0;
+        long trainStart = System.nanoTime();
+        for (int epoch=0; epoch<epochs; epoch++) {
+            if (runIteration(burglerWorld, burgler, r, "explore", masks, 
+                        outs, telemetry, convergence, renderer)) useful++;
+            if (checkpointer!=null) checkpointer.step();
+            if (convergence!=null && convergence.converged()) {
+                convergedAt = epoch+1;
+                break;
+            }
+        }
+        //Rendered frames go out before anything else is printed
+        if (renderer!=null) {
+            long dropped = renderer.close();
+            if (dropped>0) Environment.multiPrintln("Dropped " + dropped + 
+                                " rendered frames to keep up", outs);
+        }
+        if (convergedAt>0) 
+            Environment.multiPrintln("Converged after " + convergedAt + 
+                                        " moves", outs);
+        double seconds = (System.nanoTime()-trainStart)/1e9;
+        Environment.multiPrintln("Trained " + useful + " useful moves in " + 
+            seconds + "s: " + (long)(useful/seconds) + " useful moves/sec", 
+            outs);
+        if (telemetry!=null) telemetry.close();
+        if (checkpointer!=null) checkpointer.close();
+        if (episodeLog!=null) {
+            burglerWorld.setEpisodeLog(null);
+            try {
+                episodeLog.close();
+            } catch (IOException e) {
+                error("out");
+            }
+        }
             
-        //We're done learning. Start over and set Agents to "kill" (ie greedy)
-        burglerWorld = startOver(burgler, args[0]);
-        while (!burglerWorld.hasTerm())
-            runIteration(burglerWorld, burgler, r, "greedy", outs, args[0]);
+        //We're done learning. See how the policy does from every start, 
+        //if asked. Greedy runs can go round in circles, so they're capped
+        int cap = (int)numberOption(args, "eval-cap", 
+                        Evaluator.defaultStepCap(board));
+        if (cap<1) error("param");
+        Evaluator evaluator = makeEvaluator(args, board, q, cap, seeds);
+        if (evaluator!=null) evaluator.report(outs);
+        //Start over and set Agents to "kill" (ie greedy)
+        startOver(burglerWorld, burgler);
+        for (int move=0; move<cap && !burglerWorld.hasTerm(); move++)
+            runIteration(burglerWorld, burgler, r, "greedy", masks, outs, 
+                            null, null, null);
         burglerWorld.print(outs);
     }
     
     /**
-     * Runs an iteration (aka a turn) of the burgler world.
+     * Runs an iteration (aka a turn) of the burgler world, with the Agent
+     * only picking among legal moves.
      * @param burglerWorld The Environment to run
      * @param burgler The Agent in that Environment
-     * @param r The Random object to use for random things
+     * @param r The random generator for the Agent's move selection
      * @param type The type of action selection for the Agent
      * @param outs The PrintStreams to print output to
-     * @param f The filename of the input file for resetting the Environment
      */
     public static void runIteration(Environment burglerWorld, Agent burgler,
-                        Random r, String type, PrintStream[] outs, String f) {
+                        RandomGenerator r, String type, PrintStream[] outs) {
+        runIteration(burglerWorld, burgler, r, type, outs, null, null);
+    }
+    
+    /**
+     * Runs an iteration (aka a turn) of the burgler world, counting it in 
+     * the telemetry and convergence check, with the Agent only picking 
+     * among legal moves.
+     * @param burglerWorld The Environment to run
+     * @param burgler The Agent in that Environment
+     * @param r The random generator for the Agent's move selection
+     * @param type The type of action selection for the Agent
+     * @param outs The PrintStreams to print output to
+     * @param telemetry The Telemetry to count moves and episodes in, or null
+     * @param convergence The Convergence to check Q updates with, or null
+     */
+    public static void runIteration(Environment burglerWorld, Agent burgler,
+                        RandomGenerator r, String type, 
+                        PrintStream[] outs, 
+                        Telemetry telemetry, Convergence convergence) {
+        runIteration(burglerWorld, burgler, r, type, true, outs, telemetry, 
+                        convergence, null);
+    }
+    
+    /**
+     * Runs an iteration (aka a turn) of the burgler world, counting it in 
+     * the telemetry and convergence check, and rendering finished episodes.
+     * @param burglerWorld The Environment to run
+     * @param burgler The Agent in that Environment
+     * @param r The random generator for the Agent's move selection
+     * @param type The type of action selection for the Agent
+     * @param masks If the Agent only picks among the moves the environment
+     * says are legal, instead of learning the walls by bumping into them
+     * @param outs The PrintStreams to print output to
+     * @param telemetry The Telemetry to count moves and episodes in, or null
+     * @param convergence The Convergence to check Q updates with, or null
+     * @param renderer The Renderer to show finished episodes with, or null
+     * @return if the move was useful, ie valid rather than into a wall
+     */
+    public static boolean runIteration(Environment burglerWorld, 
+                        Agent burgler, RandomGenerator r, String type, 
+                        boolean masks, PrintStream[] outs, 
+                        Telemetry telemetry, Convergence convergence, 
+                        Renderer renderer) {
         if (burglerWorld.hasTerm()) { //if burgler has won/died
-            //burglerWorld.print(outs);
-            burglerWorld = startOver(burgler, f);
+            if (renderer!=null) renderer.endEpisode(burglerWorld);
+            if (telemetry!=null) telemetry.endEpisode(burglerWorld);
+            if (convergence!=null) convergence.endEpisode();
+            startOver(burglerWorld, burgler);
         }
         /* Agent makes a move on the board. Since agent knows nothing about
          * the rules or board other than arbitrary action choices, the 
          * board must feed result location and reward back to the agent. */
-        int move = burgler.selectMove(r, type);
-        Object[] feedback = burglerWorld.makeMove(move);
-        burgler.giveFeedback(feedback);
+        int move = masks ? 
+            burgler.selectMove(r, type, burglerWorld.getValidMoveMask()) :
+            burgler.selectMove(r, type);
+        long feedback = burglerWorld.step(move);
+        burgler.giveFeedback(feedback, burglerWorld.getPonyMask());
+        boolean useful = Environment.stepValid(feedback);
+        if (telemetry!=null) telemetry.step(useful);
+        if (convergence!=null) convergence.step(burgler);
+        return useful;
     }
     
     /**
-     * Resets the Environment and tells the burgler its new random start spot.
+     * Resets the Environment in place and tells the burgler its new random 
+     * start spot, picked from the Environment's own random generator.
+     * @param burglerWorld The Environment to reset
      * @param burgler The Agent in that Environment
-     * @param f The filename of the input file for fresh Environment rebuilding
-     * @return the fresh Environment
      */
-    public static Environment startOver(Agent burgler, String f) {
-        Environment fresh = new Environment(getScanner(f));
-        burgler.startOver(fresh.getBurgler());
-        return fresh;
+    public static void startOver(Environment burglerWorld, Agent burgler) {
+        burglerWorld.reset();
+        burgler.startOver(burglerWorld.getBurglerCell(), 
+                            burglerWorld.getPonyMask());
     }
     
     /**
      * Checks if the command line parameters are as expected. If not, prints 
      * error message and terminates. Currently, there should be four params, 
      * an input file name followed by three parameters to the Q Learning 
-     * algorithm. The file is expected to be an existing, readable file.
-     * Use this method when initializing the first Environment. Later, use 
-     * getScanner() instead to skip parameter checking.
+     * algorithm, then any number of --name=value options. The file is 
+     * expected to be an existing, readable file.
+     * Use this method when loading the Board. Elsewhere, use loadBoard() 
+     * instead to skip parameter checking.
      * @param args The command line arguments
-     * @return a scanner over the input file.
+     * @return the input file name.
      */
-    private static Scanner paramCheck(String[] args) {
-        if (args.length!=4) error("cmd");
-        Scanner sc = getScanner(args[0]);
+    private static String paramCheck(String[] args) {
+        if (args.length<4) error("cmd");
+        for (int i=4; i<args.length; i++)
+            if (!args[i].startsWith("--")||!args[i].contains("=")) 
+                error("option");
         //See if parameters are the right type of value
         try {
             Double.parseDouble(args[1]); //alpha
@@ -91,7 +232,331 @@ public class QLearn {
         } catch (NumberFormatException e) {
             error("param");
         }
-        return sc;
+        return args[0];
+    }
+    
+    /**
+     * Gets the value of a --name=value option from the command line.
+     * @param args The command line arguments
+     * @param name The option's name
+     * @param def The value to use if the option isn't given
+     * @return the option's value
+     */
+    public static String option(String[] args, String name, String def) {
+        for (int i=4; i<args.length; i++)
+            if (args[i].startsWith("--" + name + "="))
+                return args[i].substring(name.length()+3);
+        return def;
+    }
+    
+    /**
+     * Gets the value of a numeric --name=value option from the command line.
+     * @param args The command line arguments
+     * @param name The option's name
+     * @param def The value to use if the option isn't given
+     * @return the option's value
+     */
+    public static double numberOption(String[] args, String name, double def) {
+        String value = option(args, name, null);
+        if (value==null) return def;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            error("param");
+        }
+        return def;
+    }
+    
+    /**
+     * Makes the generator every random stream in a run is split off. With 
+     * --seed=n the whole run, Q table and all, comes out the same every 
+     * time; otherwise it's seeded differently each run.
+     * @param args The command line arguments
+     * @return the root generator
+     */
+    public static SplittableRandom makeSeeds(String[] args) {
+        String seed = option(args, "seed", null);
+        if (seed==null) return new SplittableRandom();
+        try {
+            return new SplittableRandom(Long.parseLong(seed));
+        } catch (NumberFormatException e) {
+            error("param");
+        }
+        return null;
+    }
+    
+    /**
+     * Starts streaming telemetry if the --telemetry=file option was given. 
+     * --telemetry-interval=ms sets how often a line is written.
+     * @param args The command line arguments
+     * @param q The Q table being trained
+     * @return the Telemetry, or null if it wasn't asked for
+     */
+    private static Telemetry openTelemetry(String[] args, QTable q) {
+        String filename = option(args, "telemetry", null);
+        if (filename==null) return null;
+        long interval = (long)numberOption(args, "telemetry-interval", 
+                                            TELEMETRY_INTERVAL_MS);
+        Telemetry telemetry = null;
+        try {
+            telemetry = new Telemetry(filename, interval, q);
+        } catch (FileNotFoundException e) {
+            error("out");
+        }
+        return telemetry;
+    }
+    
+    /**
+     * Starts logging every training move to a binary episode log if the 
+     * --episode-log=file option was given.
+     * @param args The command line arguments
+     * @param burglerWorld The Environment to log
+     * @return the EpisodeLog, or null if it wasn't asked for
+     */
+    private static EpisodeLog openEpisodeLog(String[] args, 
+                        Environment burglerWorld) {
+        String filename = option(args, "episode-log", null);
+        if (filename==null) return null;
+        EpisodeLog log = null;
+        try {
+            log = new EpisodeLog(new File(filename), burglerWorld.getSize());
+        } catch (IOException e) {
+            error("out");
+        }
+        burglerWorld.setEpisodeLog(log);
+        return log;
+    }
+    
+    /**
+     * Sets up rendering of finished episodes while training if the 
+     * --render-every=n option was given. One episode in n is rendered, in 
+     * the background, to the same streams as everything else.
+     * @param args The command line arguments
+     * @param outs The PrintStreams to render to
+     * @return the Renderer, or null if it wasn't asked for
+     */
+    private static Renderer makeRenderer(String[] args, PrintStream[] outs) {
+        long every = (long)numberOption(args, "render-every", 0);
+        if (every<0) error("param");
+        if (every==0) return null;
+        return new Renderer(outs, every);
+    }
+    
+    /**
+     * Sets up early stopping if the --tolerance=x option was given. Training
+     * stops once every Q update has been under x for --window-moves moves 
+     * and --window-episodes episodes in a row. --watch-policy=true also 
+     * requires the greedy policy to stop changing.
+     * @param args The command line arguments
+     * @return the Convergence check, or null if it wasn't asked for
+     */
+    private static Convergence makeConvergence(String[] args) {
+        if (option(args, "tolerance", null)==null) return null;
+        double tolerance = numberOption(args, "tolerance", 0);
+        long moves = (long)numberOption(args, "window-moves", 
+                                        CONVERGENCE_WINDOW_MOVES);
+        long episodes = (long)numberOption(args, "window-episodes", 
+                                            CONVERGENCE_WINDOW_EPISODES);
+        boolean watchPolicy = Boolean.parseBoolean(
+                                option(args, "watch-policy", "false"));
+        return new Convergence(tolerance, moves, episodes, watchPolicy);
+    }
+    
+    /**
+     * Sets up Dyna-Q planning if the --planning-steps=n option was given.
+     * After every real move the agent then makes up to n simulated Q 
+     * updates from moves it remembers, biggest TD error first. Updates
+     * smaller than --planning-threshold aren't worth queuing.
+     * @param args The command line arguments
+     * @param q The Q table being trained
+     * @param alpha The learning rate
+     * @param gamma The discount factor
+     * @return the Planner, or null if it wasn't asked for
+     */
+    private static Planner makePlanner(String[] args, QTable q, double alpha,
+                        double gamma) {
+        int steps = (int)numberOption(args, "planning-steps", 0);
+        if (steps<0) error("param");
+        if (steps==0) return null;
+        double threshold = numberOption(args, "planning-threshold", 
+                                        PLANNING_THRESHOLD);
+        return new Planner(q, alpha, gamma, steps, threshold);
+    }
+    
+    /**
+     * Sets up multi-step backups if asked for: Watkins's Q(lambda) with 
+     * --lambda=x, or n-step Q-learning with --n-step=n. Either way a reward 
+     * reaches the moves leading up to it in fewer moves than one-step 
+     * Q-learning takes. Only one can be used at a time.
+     * @param args The command line arguments
+     * @param q The Q table being trained
+     * @param alpha The learning rate
+     * @param gamma The discount factor
+     * @return the Backup, or null if neither was asked for
+     */
+    private static Backup makeBackup(String[] args, QTable q, double alpha,
+                        double gamma) {
+        boolean useLambda = option(args, "lambda", null)!=null;
+        double lambda = numberOption(args, "lambda", 0);
+        double steps = numberOption(args, "n-step", 0);
+        if (useLambda && !(lambda>=0 && lambda<=1)) error("param");
+        if (steps!=Math.rint(steps) || steps<0 || steps>Integer.MAX_VALUE) 
+            error("param");
+        int n = (int)steps;
+        if (useLambda && n>0) error("backup");
+        if (useLambda) return new QLambda(q, alpha, gamma, lambda);
+        if (n>0) return new NStepQ(q, alpha, gamma, n);
+        return null;
+    }
+    
+    /**
+     * Sets up experience replay if the --replay=n option was given: the 
+     * last n real moves are remembered, and after every real move a batch 
+     * of --replay-batch of them is replayed, drawn uniformly or, with 
+     * --replay-priority=true, by how far off their Q values were last time.
+     * @param args The command line arguments
+     * @param q The Q table being trained
+     * @param alpha The learning rate
+     * @param gamma The discount factor
+     * @param seeds The generator to split the draws' stream off
+     * @return the ReplayBuffer, or null if it wasn't asked for
+     */
+    private static ReplayBuffer makeReplay(String[] args, QTable q, 
+                        double alpha, double gamma, SplittableRandom seeds) {
+        int capacity = (int)numberOption(args, "replay", 0);
+        int batch = (int)numberOption(args, "replay-batch", REPLAY_BATCH);
+        if (capacity<0 || batch<1) error("param");
+        if (capacity==0) return null;
+        boolean prioritized = Boolean.parseBoolean(
+                                option(args, "replay-priority", "false"));
+        return new ReplayBuffer(capacity, q, alpha, gamma, batch, 
+                                prioritized, seeds.split());
+    }
+    
+    /**
+     * Rolls the trained greedy policy out from up to n free starts if the 
+     * --evaluate=n option was given, spread over --eval-threads threads 
+     * (one per core by default).
+     * @param args The command line arguments
+     * @param board The parsed board
+     * @param q The trained Q table
+     * @param cap The most moves a rollout gets, from --eval-cap
+     * @param seeds The generator to split the rollouts' streams off
+     * @return the Evaluator with the rollouts' totals, or null if skipped
+     */
+    private static Evaluator makeEvaluator(String[] args, Board board, 
+                        QTable q, int cap, SplittableRandom seeds) {
+        int starts = (int)numberOption(args, "evaluate", 0);
+        int threads = (int)numberOption(args, "eval-threads", 
+                        Runtime.getRuntime().availableProcessors());
+        if (starts<0 || threads<1) error("param");
+        if (starts==0) return null;
+        Evaluator evaluator = new Evaluator(board, q, 
+                        option(args, "trolls", "none"), cap);
+        evaluator.evaluate(starts, Math.min(threads, starts), seeds);
+        return evaluator;
+    }
+    
+    /**
+     * Gets the Q table to train. With --resume=file it's loaded from a 
+     * checkpoint, so training picks up where it left off (or, with 0 epochs,
+     * goes straight to the greedy run). Otherwise it starts out empty.
+     * @param args The command line arguments
+     * @param board The board being trained on, which the table must fit
+     * @return the Q table
+     */
+    private static DenseQTable loadOrCreateTable(String[] args, Board board) {
+        String filename = option(args, "resume", null);
+        if (filename==null) 
+            return new DenseQTable(board.getSize(), 
+                Environment.NEIGHBOR_COUNT, Agent.INITIAL_Q);
+        DenseQTable q = null;
+        try {
+            q = DenseQTable.load(new File(filename));
+        } catch (IOException e) {
+            error("checkpoint", e.getMessage());
+        }
+        if (q.getSize()!=board.getSize() || 
+                q.moveCount()!=Environment.NEIGHBOR_COUNT) 
+            error("checkpoint");
+        return q;
+    }
+    
+    /**
+     * Makes the Q table for --pony-states=true, whose states also tell apart
+     * which ponies are left. It doesn't support checkpoints or planning.
+     * @param args The command line arguments
+     * @param board The board being trained on
+     * @return the Q table
+     */
+    private static QTable makePonyTable(String[] args, Board board) {
+        if (option(args, "checkpoint", null)!=null || 
+                option(args, "resume", null)!=null ||
+                numberOption(args, "planning-steps", 0)!=0 ||
+                board.getInitialPonyCount()>
+                    PonyQTable.maxPonies(board.getSize()))
+            error("ponies");
+        return new PonyQTable(board, Environment.NEIGHBOR_COUNT, 
+                                Agent.INITIAL_Q);
+    }
+    
+    /**
+     * Makes a Q table that only has rows for the cells that get visited: 
+     * --q-table=sparse, or map for the boxed HashMap one, or a sparse one 
+     * on a large board, which a dense one couldn't hold. Neither supports 
+     * checkpoints.
+     * @param args The command line arguments
+     * @param tableType The --q-table option's value
+     * @return the Q table
+     */
+    private static QTable makeVisitedTable(String[] args, String tableType) {
+        if (option(args, "checkpoint", null)!=null || 
+                option(args, "resume", null)!=null)
+            error("large");
+        switch (tableType) {
+            case "dense": //Only here for large boards
+            case "sparse":
+                return new SparseQTable(Environment.NEIGHBOR_COUNT, 
+                                        Agent.INITIAL_Q);
+            case "map":
+                return new MapQTable(Environment.NEIGHBOR_COUNT, 
+                                        Agent.INITIAL_Q);
+        }
+        error("table");
+        return null;
+    }
+    
+    /**
+     * Sets up periodic checkpoints if the --checkpoint=file option was given.
+     * --checkpoint-every=n sets how many moves apart they are.
+     * @param args The command line arguments
+     * @param q The Q table being trained, or null if it can't be saved
+     * @return the Checkpointer, or null if it wasn't asked for
+     */
+    private static Checkpointer makeCheckpointer(String[] args, 
+                        DenseQTable q) {
+        String filename = option(args, "checkpoint", null);
+        if (filename==null || q==null) return null;
+        long interval = (long)numberOption(args, "checkpoint-every", 
+                                            CHECKPOINT_INTERVAL_MOVES);
+        if (interval<=0) error("param");
+        return new Checkpointer(q, new File(filename), interval);
+    }
+    
+    /**
+     * Loads a Board from the given filename through a memory map, 
+     * processing errors.
+     * @param filename The input file's name
+     * @return the board
+     */
+    public static Board loadBoard(String filename) {
+        Board board = null;
+        try {
+            board = Board.load(new File(filename));
+        } catch (IOException e) {
+            error("file");
+        }
+        return board;
     }
     
     /**
@@ -112,14 +577,15 @@ public class QLearn {
     
     /**
      * Gets the array of PrintsStreams to print to. 
+     * @param filename The name of the output file
      * @return an array of two PrintStreams: System.out and the output file
      */
-    private static PrintStream[] cmdAndFile() {
+    public static PrintStream[] cmdAndFile(String filename) {
         PrintStream[] outs = new PrintStream[2];
         try {
             outs = new PrintStream[]{
                 System.out, 
-                new PrintStream(new File(OUTPUT_FILENAME))
+                new PrintStream(new File(filename))
             };
         } catch (FileNotFoundException e) {
             error("out");
@@ -129,6 +595,12 @@ public class QLearn {
     
     //Prints the error message associated with err and exits the program.
     private static void error(String err) {
+        error(err, null);
+    }
+    
+    //Prints the error message associated with err, followed by what exactly
+    //was wrong if known, and exits the program.
+    private static void error(String err, String detail) {
         String message = null;
         switch (err) {
             case "cmd":
@@ -136,16 +608,51 @@ public class QLearn {
                             "File name, a learning rate, a discount factor, " +
                             "and a number of epochs to run for.";
                 break;
+            case "file":
+                message = "The input file could not be read. Check that it " +
+                            "exists and that you can read it.";
+                break;
             case "param":
                 message = "Please make sure that the learning rate and " +
                              "discount factors are expressed as real numbers" + 
-                             " and that the number of epochs is an integer.";
+                             ", that the number of epochs is an integer and " +
+                             "that each option's value is in range.";
+                break;
+            case "checkpoint":
+                message = "The checkpoint to resume from could not be " +
+                            "loaded, or was made for a different board.";
+                break;
+            case "ponies":
+                message = "Pony-aware states can't be combined with " +
+                            "checkpoints or planning, or this board has too " +
+                            "many ponies to track.";
+                break;
+            case "large":
+                message = "Only dense Q tables can be saved, so large " +
+                            "boards and sparse or map tables can't be " +
+                            "combined with checkpoints.";
+                break;
+            case "table":
+                message = "Q tables can be \"dense\", \"sparse\" or " +
+                            "\"map\".";
+                break;
+            case "trolls":
+                message = "Trolls can move \"none\", \"random\" or " +
+                            "\"pursue\".";
+                break;
+            case "backup":
+                message = "Pick one of --lambda and --n-step, not both.";
+                break;
+            case "option":
+                message = "Options after the first four parameters must " +
+                            "look like --name=value.";
                 break;
             case "out":
                 message = "Output file could not be created. Check that you" +
                             "have the right permissions for this location.";
                 break;
         }
+        if (detail!=null) message += " " + detail + ".";
         System.out.println(message);
         System.exit(1);
     }
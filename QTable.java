@@ -0,0 +1,166 @@
+/**
+ * Storage for an Agent's Q values. A state is a board cell, encoded as
+ * x*size + y, unless the table also tells apart which ponies are left (see
+ * state()). Each state has moveCount() moves numbered from 0.
+ * Moves from a state can be invalidated (eg when they hit a wall), after
+ * which they are skipped by anyone looking for the best move.
+ */
+public interface QTable {
+
+    /**
+     * Gets the state for the burgler being in a cell with the given ponies
+     * left. Tables that don't care about ponies just use the cell.
+     * @param cell The burgler's cell, x*size + y
+     * @param ponyMask Bit i is set if pony i is still on the board
+     * @return the state
+     */
+    default int state(int cell, long ponyMask) {
+        return cell;
+    }
+
+    /**
+     * Makes sure that the table has an entry for the state. If not, it
+     * creates one and initializes the Q value and validity of each move.
+     * States that already exist are left alone, so invalidated moves stay
+     * invalidated.
+     * @param state The state to check
+     */
+    void ensureExists(int state);
+
+    /**
+     * Records that an agent has arrived in a state, making sure it exists.
+     * Tables that keep visit counts override this to count the visit.
+     * @param state The state arrived in
+     */
+    default void visit(int state) {
+        ensureExists(state);
+    }
+
+    /**
+     * Gets the Q value of a move from a state. The state must exist.
+     * @param state The state the move is made from
+     * @param move The move code
+     * @return the Q value
+     */
+    double get(int state, int move);
+
+    /**
+     * Sets the Q value of a move from a state. The state must exist.
+     * @param state The state the move is made from
+     * @param move The move code
+     * @param value The new Q value
+     */
+    void set(int state, int move, double value);
+
+    /**
+     * Moves the Q value of a move a step of size alpha towards a target:
+     * Q += alpha*(target - Q). The state must exist. Tables shared between
+     * threads override this to apply the whole step atomically.
+     * @param state The state the move is made from
+     * @param move The move code
+     * @param target The value to move towards, eg reward + gamma*maxQ
+     * @param alpha The learning rate
+     * @return the change that was made to the Q value
+     */
+    default double update(int state, int move, double target, double alpha) {
+        double value = get(state, move);
+        double delta = alpha*(target-value);
+        set(state, move, value+delta);
+        return delta;
+    }
+
+    /**
+     * Gets the highest Q value among all valid moves from a state. Never 
+     * less than -1, the floor the agent has always used. The state must 
+     * exist.
+     * @param state The state to check
+     * @return The biggest Q value from the state
+     */
+    default double maxQ(int state) {
+        double maxQ = -1;
+        for (int i=0; i<moveCount(); i++)
+            if (isValid(state, i) && get(state, i)>maxQ) maxQ = get(state, i);
+        return maxQ;
+    }
+
+    /**
+     * Gets the valid moves from a state that are tied for the highest Q 
+     * value, ie the moves a greedy agent picks between. Tables that keep 
+     * these up to date as they're written override this and maxQ() to 
+     * answer without looking at every move. The state must exist.
+     * @param state The state to check
+     * @return bit i is set if move i is one of the best, 0 if no move is 
+     * valid
+     */
+    default int bestMoves(int state) {
+        double best = Double.NEGATIVE_INFINITY;
+        int moves = 0;
+        for (int i=0; i<moveCount(); i++) {
+            if (!isValid(state, i)) continue;
+            double value = get(state, i);
+            if (value>best) {
+                best = value;
+                moves = 1<<i;
+            } else if (value==best) moves |= 1<<i;
+        }
+        return moves;
+    }
+
+    /**
+     * Gets the moves a greedy agent with action masks would pick between in
+     * a cell with some ponies left: the valid ones among the legal moves
+     * that are tied for the highest Q value. Nothing is created or written,
+     * so any number of threads can ask at once as long as nobody is
+     * training the table, eg to evaluate a trained policy. Tables whose
+     * state() or lookups write to the table override this.
+     * @param cell The burgler's cell, x*size + y
+     * @param ponyMask Bit i is set if pony i is still on the board
+     * @param legal The legal moves from the cell, bit i for move i
+     * @return bit i is set if move i is one of the best, 0 if the state
+     * was never reached or none of its valid moves are legal
+     */
+    default int peekBestMoves(int cell, long ponyMask, int legal) {
+        int state = state(cell, ponyMask);
+        int moves = bestMoves(state)&legal;
+        if (moves!=0) return moves;
+        //The best moves aren't legal (eg never bumped into), so look again
+        double best = Double.NEGATIVE_INFINITY;
+        for (int i=0; i<moveCount(); i++) {
+            if ((legal&(1<<i))==0 || !isValid(state, i)) continue;
+            double value = get(state, i);
+            if (value>best) {
+                best = value;
+                moves = 1<<i;
+            } else if (value==best) moves |= 1<<i;
+        }
+        return moves;
+    }
+
+    /**
+     * Determines whether or not a move from a state is still valid.
+     * @param state The state the move is made from
+     * @param move The move code
+     * @return if the move hasn't been invalidated
+     */
+    boolean isValid(int state, int move);
+
+    /**
+     * Removes the option to make a move from a state.
+     * @param state The state the move is made from
+     * @param move The move code
+     */
+    void invalidate(int state, int move);
+
+    /**
+     * Gets the number of states that have been initialized so far. A rough
+     * measure of how big the table has grown.
+     * @return the state count
+     */
+    int stateCount();
+
+    /**
+     * Gets the number of moves each state has.
+     * @return the move count
+     */
+    int moveCount();
+}
@@ -0,0 +1,50 @@
+import java.io.*;
+
+/**
+ * Renders the board at the end of every so many episodes while training,
+ * and hands each frame to a FrameWriter per output stream. Rendering is one
+ * pass over the board into the environment's reusable buffer; the writing
+ * happens in the background, dropping frames if a stream can't keep up.
+ */
+public class Renderer {
+    private FrameWriter[] writers;
+    private long every;
+    private long episodes;
+
+    /**
+     * Starts a background writer for each output stream.
+     * @param outs The streams to render to
+     * @param every Render one in this many episodes
+     */
+    public Renderer(PrintStream[] outs, long every) {
+        this.every = every;
+        this.writers = new FrameWriter[outs.length];
+        for (int i=0; i<outs.length; i++)
+            writers[i] = new FrameWriter(outs[i], "render-" + i);
+    }
+
+    /**
+     * Counts a finished episode, rendering it if it's time. To be called
+     * when the environment has reached a terminal state, before it's reset.
+     * @param world The environment whose episode just ended
+     */
+    public void endEpisode(Environment world) {
+        if (++episodes%every!=0) return;
+        int length = world.render();
+        for (FrameWriter writer : writers)
+            writer.offer(world.getFrame(), length);
+    }
+
+    /**
+     * Writes the last frames and stops the background writers.
+     * @return the total number of frames dropped across the streams
+     */
+    public long close() {
+        long dropped = 0;
+        for (FrameWriter writer : writers) {
+            writer.close();
+            dropped += writer.getDropped();
+        }
+        return dropped;
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.*;
+import java.util.random.*;
+
+/**
+ * Experience replay. Remembers the agent's latest real moves (state, move,
+ * reward, resulting state and whether that ended the episode) in parallel
+ * primitive arrays used as a ring, and after each real move replays a
+ * mini-batch of them as extra Q updates, so rare rewards like ponies and
+ * the escape are learned from more than once.
+ * Batches are drawn uniformly, or by priority: in proportion to each
+ * move's last TD error (plus PRIORITY_FLOOR, raised to PRIORITY_EXPONENT),
+ * through a sum tree so drawing and updating a priority take log time. New
+ * moves get the biggest priority seen, so each is replayed at least soon.
+ * The table is small enough to be learned exactly, so draws aren't
+ * reweighted for the bias priorities bring in.
+ */
+public class ReplayBuffer {
+    public static double PRIORITY_EXPONENT = 0.6;
+    public static double PRIORITY_FLOOR = 1e-3;
+
+    private QTable q;
+    private double alpha;
+    private double gamma;
+    private int batchSize;
+    private RandomGenerator random;
+    //The moves, a ring of parallel arrays
+    private int[] states;
+    private int[] moves;
+    private int[] rewards;
+    private int[] nexts;
+    private boolean[] terminals;
+    private int capacity;
+    private int next; //Where the next move goes
+    private int size;
+    //Sum tree of priorities, if prioritized: tree[1] is the root, the
+    //leaves start at tree[leaves]. Null for uniform draws
+    private double[] tree;
+    private int leaves;
+    private double maxPriority = 1;
+    private int[] batch; //The moves drawn for the current batch
+
+    /**
+     * Sets up an empty buffer.
+     * @param capacity The most moves remembered. Older ones are forgotten
+     * @param q The Q table to replay into
+     * @param alpha The learning rate for replayed updates
+     * @param gamma The discount factor
+     * @param batchSize The number of moves replayed per real move
+     * @param prioritized If moves are drawn by TD error, not uniformly
+     * @param random The random generator to draw with
+     */
+    public ReplayBuffer(int capacity, QTable q, double alpha, double gamma,
+                        int batchSize, boolean prioritized,
+                        RandomGenerator random) {
+        this.q = q;
+        this.alpha = alpha;
+        this.gamma = gamma;
+        this.batchSize = batchSize;
+        this.random = random;
+        this.capacity = capacity;
+        this.states = new int[capacity];
+        this.moves = new int[capacity];
+        this.rewards = new int[capacity];
+        this.nexts = new int[capacity];
+        this.terminals = new boolean[capacity];
+        this.batch = new int[batchSize];
+        if (prioritized) {
+            this.leaves = Integer.highestOneBit(Math.max(capacity-1, 1))*2;
+            this.tree = new double[2*leaves];
+        }
+    }
+
+    /**
+     * Remembers a real move, forgetting the oldest if full.
+     * @param state The state the move was made from
+     * @param move The move code
+     * @param reward The reward for the move
+     * @param result The resulting state
+     * @param terminal If the move ended the episode, so nothing follows it
+     */
+    public void add(int state, int move, int reward, int result,
+                        boolean terminal) {
+        states[next] = state;
+        moves[next] = move;
+        rewards[next] = reward;
+        nexts[next] = result;
+        terminals[next] = terminal;
+        if (tree!=null) setPriority(next, maxPriority);
+        next = (next+1)%capacity;
+        if (size<capacity) size++;
+    }
+
+    /**
+     * Replays a mini-batch: draws the moves first, then updates each one
+     * towards its reward plus, unless it ended the episode, the discounted
+     * best Q value of its resulting state.
+     */
+    public void replay() {
+        if (size==0) return;
+        for (int i=0; i<batchSize; i++) batch[i] = draw();
+        for (int i=0; i<batchSize; i++) {
+            int m = batch[i];
+            double target = rewards[m];
+            if (!terminals[m]) target += gamma*q.maxQ(nexts[m]);
+            double error = target-q.get(states[m], moves[m]);
+            q.update(states[m], moves[m], target, alpha);
+            if (tree!=null) setPriority(m, Math.pow(
+                Math.abs(error)+PRIORITY_FLOOR, PRIORITY_EXPONENT));
+        }
+    }
+
+    /**
+     * Gets the number of moves remembered.
+     * @return the size
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Draws a remembered move, uniformly or by priority.
+     * @return its index
+     */
+    private int draw() {
+        if (tree==null) return random.nextInt(size);
+        double x = random.nextDouble()*tree[1];
+        int node = 1;
+        while (node<leaves) { //Walk down to the leaf x falls in
+            node *= 2;
+            if (x>=tree[node] && tree[node+1]>0) {
+                x -= tree[node];
+                node++;
+            }
+        }
+        return Math.min(node-leaves, size-1); //In case sums have drifted
+    }
+
+    /**
+     * Sets a move's priority, fixing up the sums above it.
+     * @param i The move's index
+     * @param priority The new priority
+     */
+    private void setPriority(int i, double priority) {
+        maxPriority = Math.max(maxPriority, priority);
+        int node = i+leaves;
+        double change = priority-tree[node];
+        for (; node>=1; node/=2) tree[node] += change;
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.*;
+
+/**
+ * A QTable for boards too big to give every cell a row, like a 10,000 x
+ * 10,000 board, where a dense table would need 800 million Q values. Only
+ * cells that have been visited get a row of moveCount Q values, handed out
+ * in the order they're first visited, and a LongIntMap finds each cell's
+ * row. Memory grows with the part of the board the agent has explored, not
+ * with its area.
+ * The agent asks for the same state several times in a row (eg a get and
+ * then a set), so the last lookup is remembered. Each row's best moves are
+ * kept up to date as it's written (see BestMoves).
+ */
+public class SparseQTable implements QTable {
+    private static int INITIAL_CAPACITY = 1<<12;
+
+    private int moveCount;
+    private double initialQ;
+    private LongIntMap rows; //Cell to row
+    private double[] q; //Rows of moveCount Q values
+    private byte[] validMoves; //bit i is set if move i is still valid
+    private BestMoves bestMoves;
+    private int stateCount;
+
+    //The last state looked up, and its row
+    private int lastState = -1;
+    private int lastRow;
+
+    /**
+     * Initializes an empty sparse Q table.
+     * @param moveCount The number of moves each state has, at most 8
+     * @param initialQ The Q value new moves start with
+     */
+    public SparseQTable(int moveCount, double initialQ) {
+        if (moveCount>DenseQTable.MAX_MOVE_COUNT)
+            throw new IllegalArgumentException("Sparse Q tables support at " +
+                        "most " + DenseQTable.MAX_MOVE_COUNT +
+                        " moves per state");
+        this.moveCount = moveCount;
+        this.initialQ = initialQ;
+        this.rows = new LongIntMap(INITIAL_CAPACITY);
+        this.q = new double[INITIAL_CAPACITY*moveCount];
+        this.validMoves = new byte[INITIAL_CAPACITY];
+        this.bestMoves = new BestMoves(INITIAL_CAPACITY, moveCount);
+    }
+
+    @Override
+    public void ensureExists(int state) {
+        if (state==lastState || rows.get(state, -1)>=0) return;
+        //If we get here, the spot was new. Give it the next row.
+        int row = stateCount++;
+        if (row>=validMoves.length) {
+            validMoves = Arrays.copyOf(validMoves, 2*validMoves.length);
+            q = Arrays.copyOf(q, 2*q.length);
+            bestMoves.grow(validMoves.length);
+        }
+        rows.put(state, row);
+        Arrays.fill(q, row*moveCount, (row+1)*moveCount, initialQ);
+        validMoves[row] = (byte)((1<<moveCount)-1);
+        bestMoves.init(row, initialQ, validMoves[row]&0xFF);
+    }
+
+    @Override
+    public double get(int state, int move) {
+        return q[row(state)*moveCount+move];
+    }
+
+    @Override
+    public void set(int state, int move, double value) {
+        int row = row(state);
+        q[row*moveCount+move] = value;
+        bestMoves.set(row, move, value, q, validMoves[row]&0xFF);
+    }
+
+    @Override
+    public boolean isValid(int state, int move) {
+        return (validMoves[row(state)]&(1<<move))!=0;
+    }
+
+    @Override
+    public void invalidate(int state, int move) {
+        int row = row(state);
+        validMoves[row] &= ~(1<<move);
+        bestMoves.invalidate(row, move, q, validMoves[row]&0xFF);
+    }
+
+    @Override
+    public double maxQ(int state) {
+        return Math.max(bestMoves.best(row(state)), -1);
+    }
+
+    @Override
+    public int bestMoves(int state) {
+        return bestMoves.ties(row(state));
+    }
+
+    @Override
+    public int peekBestMoves(int cell, long ponyMask, int legal) {
+        //Looked up without row(), whose remembered lookup isn't thread safe
+        int row = rows.get(cell, -1);
+        if (row<0) return 0; //Never reached
+        int moves = bestMoves.ties(row)&legal;
+        if (moves!=0) return moves;
+        return bestMoves.bestAmong(row, q, validMoves[row]&legal);
+    }
+
+    @Override
+    public int stateCount() {
+        return this.stateCount;
+    }
+
+    @Override
+    public int moveCount() {
+        return this.moveCount;
+    }
+
+    /**
+     * Finds a state's row. The state must exist.
+     * @param state The state
+     * @return the row
+     */
+    private int row(int state) {
+        if (state!=lastState) {
+            lastRow = rows.get(state, -1);
+            lastState = state;
+        }
+        return lastRow;
+    }
+}
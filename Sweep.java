@@ -0,0 +1,182 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/**
+ * Runs QLearn's training for every combination of a set of alphas, gammas,
+ * epoch counts and seeds. Each combination is an independent job on a fixed
+ * size thread pool, and the results of all of them are collected into one
+ * output file.
+ */
+public class Sweep {
+    public static String OUTPUT_FILENAME = "sweep.txt";
+
+    /**
+     * Usage: java Sweep input alphas gammas epochs seeds [threads]
+     * Each of alphas, gammas, epochs and seeds is a comma separated list of
+     * values and/or start:end:step ranges, eg "0.1,0.5:0.9:0.2". threads
+     * defaults to the number of cores.
+     * @param args The command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length!=5&&args.length!=6) error("cmd");
+        Board board = QLearn.loadBoard(args[0]);
+        double[] alphas = null, gammas = null;
+        long[] epochs = null, seeds = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            alphas = parseValues(args[1]);
+            gammas = parseValues(args[2]);
+            epochs = parseIntegers(args[3]);
+            seeds = parseIntegers(args[4]);
+            if (args.length==6) threads = Integer.parseInt(args[5]);
+        } catch (NumberFormatException e) {
+            error("param");
+        }
+        if (threads<1) error("param");
+        for (long epoch : epochs)
+            if (epoch<0 || epoch>Integer.MAX_VALUE) error("param");
+
+        //One job per combination, in a fixed order so results line up
+        List<Callable<String>> jobs = new ArrayList<>();
+        for (double alpha : alphas) for (double gamma : gammas)
+            for (long epoch : epochs) for (long seed : seeds)
+                jobs.add(() -> runJob(board, alpha, gamma, (int) epoch,
+                                        seed));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        PrintStream[] outs = QLearn.cmdAndFile(OUTPUT_FILENAME);
+        Environment.multiPrintln("alpha,gamma,epochs,seed,score," +
+                                    "ponyPercent,finished", outs);
+        try {
+            for (Future<String> result : pool.invokeAll(jobs))
+                Environment.multiPrintln(result.get(), outs);
+        } catch (InterruptedException|ExecutionException e) {
+            e.printStackTrace();
+            error("job");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Trains a fresh agent on its own copy of the board, then runs the
+     * learned policy greedily from a random start spot.
+     * @param board The parsed board to play on, shared between jobs
+     * @param alpha The learning rate
+     * @param gamma The discount factor
+     * @param epochs The number of moves to train for
+     * @param seed The seed for this job's random generator
+     * @return a line of results: the parameters, then the greedy run's score,
+     * pony percentage and whether it reached a terminal state
+     */
+    public static String runJob(Board board, double alpha, double gamma,
+                        int epochs, long seed) {
+        //The environment and agent each get their own stream
+        SplittableRandom seeds = new SplittableRandom(seed);
+        SplittableRandom worldRandom = seeds.split();
+        SplittableRandom r = seeds.split();
+        PrintStream[] outs = new PrintStream[0];
+        Environment burglerWorld = new Environment(board, worldRandom);
+        //Large boards only get rows for the cells explored, like QLearn
+        QTable q = board.isLarge() ? 
+            new SparseQTable(Environment.NEIGHBOR_COUNT, Agent.INITIAL_Q) :
+            new DenseQTable(board.getSize(), Environment.NEIGHBOR_COUNT, 
+                            Agent.INITIAL_Q);
+        Agent burgler = new Agent(burglerWorld.getBurgler(), board.getSize(),
+            alpha, gamma, q);
+
+        for (int epoch=0; epoch<epochs; epoch++)
+            QLearn.runIteration(burglerWorld, burgler, r, "explore", outs);
+
+        QLearn.startOver(burglerWorld, burgler);
+        int cap = Evaluator.defaultStepCap(board);
+        for (int move=0; move<cap && !burglerWorld.hasTerm(); move++)
+            QLearn.runIteration(burglerWorld, burgler, r, "greedy", outs);
+
+        return alpha + "," + gamma + "," + epochs + "," + seed + "," +
+                burglerWorld.getScore() + "," +
+                burglerWorld.getPonyPercent() + "," + burglerWorld.hasTerm();
+    }
+
+    /**
+     * Parses a comma separated list of values and start:end:step ranges.
+     * Ranges include their end, give or take rounding.
+     * @param s The string to parse
+     * @return every value in the list, in order
+     */
+    private static double[] parseValues(String s) {
+        List<Double> values = new ArrayList<>();
+        for (String item : s.split(",")) {
+            String[] range = item.split(":");
+            if (range.length==1) {
+                values.add(Double.parseDouble(item));
+                continue;
+            }
+            if (range.length!=3) throw new NumberFormatException(item);
+            double start = Double.parseDouble(range[0]);
+            double end = Double.parseDouble(range[1]);
+            double step = Double.parseDouble(range[2]);
+            if (step<=0) throw new NumberFormatException(item);
+            //Count steps instead of adding them up, to not drift
+            for (int i=0; start+i*step<=end+step/1e6; i++)
+                values.add(start+i*step);
+        }
+        double[] array = new double[values.size()];
+        for (int i=0; i<array.length; i++) array[i] = values.get(i);
+        return array;
+    }
+
+    /**
+     * Parses a comma separated list of integers and start:end:step ranges,
+     * like parseValues() but exactly, so big seeds aren't rounded and 
+     * fractions are rejected instead of cut off.
+     * @param s The string to parse
+     * @return every value in the list, in order
+     */
+    private static long[] parseIntegers(String s) {
+        List<Long> values = new ArrayList<>();
+        for (String item : s.split(",")) {
+            String[] range = item.split(":");
+            if (range.length==1) {
+                values.add(Long.parseLong(item));
+                continue;
+            }
+            if (range.length!=3) throw new NumberFormatException(item);
+            long start = Long.parseLong(range[0]);
+            long end = Long.parseLong(range[1]);
+            long step = Long.parseLong(range[2]);
+            if (step<=0) throw new NumberFormatException(item);
+            for (long value=start; value<=end; value+=step) {
+                values.add(value);
+                if (value>end-step) break; //Before the next step overflows
+            }
+        }
+        long[] array = new long[values.size()];
+        for (int i=0; i<array.length; i++) array[i] = values.get(i);
+        return array;
+    }
+
+    //Prints the error message associated with err and exits the program.
+    private static void error(String err) {
+        String message = null;
+        switch (err) {
+            case "cmd":
+                message = "Please provide an input file name, lists of " +
+                            "learning rates, discount factors, epoch counts" +
+                            " and seeds, and optionally a thread count.";
+                break;
+            case "param":
+                message = "Please make sure that every list is made of " +
+                            "numbers or start:end:step ranges, that epochs " +
+                            "and seeds are integers and that the thread " +
+                            "count is at least 1.";
+                break;
+            case "job":
+                message = "A sweep job failed.";
+                break;
+        }
+        System.out.println(message);
+        System.exit(1);
+    }
+}
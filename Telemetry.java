@@ -0,0 +1,169 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+
+/**
+ * Counts what happens during training and streams it to a file from a
+ * background thread. The training loop only bumps counters, so it never
+ * allocates or waits on the file. Every interval a line is written with the
+ * totals so far and the averages since the previous line. A filename ending
+ * in .jsonl gets JSON lines, anything else gets CSV.
+ * Counters are adders, so several training threads can share one Telemetry.
+ */
+public class Telemetry {
+    private static String CSV_HEADER = "seconds,steps,stepsPerSec,episodes," +
+        "wins,deaths,meanReturn,meanLength,poniesSaved,qStates," +
+        "usefulSteps,usefulPerSec";
+
+    private QTable q;
+    private PrintStream out;
+    private boolean json;
+    private ScheduledExecutorService writer;
+
+    //Totals, bumped by the training loop
+    private LongAdder steps = new LongAdder();
+    private LongAdder usefulSteps = new LongAdder(); //Ones that moved
+    private LongAdder episodes = new LongAdder();
+    private LongAdder wins = new LongAdder();
+    private LongAdder deaths = new LongAdder();
+    private LongAdder returns = new LongAdder();
+    private LongAdder lengths = new LongAdder();
+    private LongAdder poniesSaved = new LongAdder();
+
+    //What the previous line saw, only touched by the writer thread
+    private long start;
+    private long lastTime;
+    private long lastSteps;
+    private long lastUseful;
+    private long lastEpisodes;
+    private long lastReturns;
+    private long lastLengths;
+
+    /**
+     * Opens the file and starts writing to it every interval.
+     * @param filename The file to stream to
+     * @param intervalMillis How often to write a line
+     * @param q The Q table being trained, to report its size
+     * @throws FileNotFoundException if the file can't be created
+     */
+    public Telemetry(String filename, long intervalMillis, QTable q)
+                        throws FileNotFoundException {
+        this.q = q;
+        this.out = new PrintStream(new FileOutputStream(filename));
+        this.json = filename.endsWith(".jsonl");
+        if (!json) out.println(CSV_HEADER);
+        this.start = System.nanoTime();
+        this.lastTime = start;
+        this.writer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread t = new Thread(task, "telemetry");
+            t.setDaemon(true);
+            return t;
+        });
+        writer.scheduleAtFixedRate(this::writeLine, intervalMillis,
+                                    intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Counts one move made by the burgler.
+     * @param useful If it was a valid move, rather than one into a wall
+     */
+    public void step(boolean useful) {
+        steps.increment();
+        if (useful) usefulSteps.increment();
+    }
+
+    /**
+     * Counts a finished episode. To be called when the environment has
+     * reached a terminal state, before it's reset.
+     * @param world The environment whose episode just ended
+     */
+    public void endEpisode(Environment world) {
+        episodes.increment();
+        if (world.hasEscaped()) wins.increment();
+        else deaths.increment();
+        returns.add(world.getScore());
+        lengths.add(world.getMoveCount());
+        poniesSaved.add(world.getPoniesSaved());
+    }
+
+    /**
+     * Stops the background thread, writes one last line and closes the file.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeLine();
+        out.close();
+    }
+
+    /**
+     * Writes the current totals and the averages since the last line.
+     */
+    private synchronized void writeLine() {
+        long now = System.nanoTime();
+        long stepCount = steps.sum();
+        long usefulCount = usefulSteps.sum();
+        long episodeCount = episodes.sum();
+        long returnSum = returns.sum();
+        long lengthSum = lengths.sum();
+
+        double seconds = (now-start)/1e9;
+        double elapsed = (now-lastTime)/1e9;
+        double stepsPerSec = elapsed<=0 ? 0 : (stepCount-lastSteps)/elapsed;
+        double usefulPerSec = elapsed<=0 ? 0 : 
+            (usefulCount-lastUseful)/elapsed;
+        long newEpisodes = episodeCount-lastEpisodes;
+        double meanReturn = newEpisodes==0 ? 0 :
+            (returnSum-lastReturns)/(double)newEpisodes;
+        double meanLength = newEpisodes==0 ? 0 :
+            (lengthSum-lastLengths)/(double)newEpisodes;
+
+        Object[] values = {seconds, stepCount, stepsPerSec, episodeCount,
+            wins.sum(), deaths.sum(), meanReturn, meanLength,
+            poniesSaved.sum(), q.stateCount(), usefulCount, usefulPerSec};
+        if (json) out.println(toJson(values));
+        else out.println(toCsv(values));
+        out.flush();
+
+        lastTime = now;
+        lastSteps = stepCount;
+        lastUseful = usefulCount;
+        lastEpisodes = episodeCount;
+        lastReturns = returnSum;
+        lastLengths = lengthSum;
+    }
+
+    /**
+     * Formats a line of values as CSV, in CSV_HEADER's order.
+     * @param values The values
+     * @return the line
+     */
+    private static String toCsv(Object[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<values.length; i++) {
+            if (i>0) sb.append(',');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats a line of values as a JSON object keyed by CSV_HEADER's names.
+     * @param values The values
+     * @return the line
+     */
+    private static String toJson(Object[] values) {
+        String[] names = CSV_HEADER.split(",");
+        StringBuilder sb = new StringBuilder("{");
+        for (int i=0; i<values.length; i++) {
+            if (i>0) sb.append(',');
+            sb.append('"').append(names[i]).append("\":").append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
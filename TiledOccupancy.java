@@ -0,0 +1,167 @@
+import java.util.*;
+
+/**
+ * An occupancy grid for boards too big for a byte per cell. The board is cut
+ * into square tiles of TILE_WIDTH x TILE_WIDTH cells, and each tile holds a
+ * bitset per flag (pony, troll, obstruction, escape). A tile is only
+ * allocated once something is put in it, so empty regions cost nothing but
+ * a null in the tile index.
+ * A grid can be made as a copy-on-write view of another: it shares the
+ * other's tiles until it changes one, and reset() drops its changes by
+ * sharing them again. That's how an Environment gets a fresh copy of its
+ * Board's starting grid each episode without copying the board.
+ */
+public class TiledOccupancy {
+    public static int TILE_BITS = 6;
+    public static int TILE_WIDTH = 1<<TILE_BITS;
+    private static int FLAG_COUNT = 4; //PONY, TROLL, OBSTRUCTION, ESCAPE
+    private static int TILE_LONGS = FLAG_COUNT*TILE_WIDTH;
+
+    private int size;
+    private int tilesPerSide;
+    //Row x%TILE_WIDTH of a flag's bitset is word flag*TILE_WIDTH + x%TILE_WIDTH
+    //and bit y%TILE_WIDTH, indexed by tile
+    private long[][] tiles;
+    private TiledOccupancy template; //Whose tiles we share, or null
+    private boolean[] owned; //If we've copied the tile, so can change it
+    private int[] ownedTiles; //Which tiles we've copied, to reset quickly
+    private int ownedCount;
+
+    /**
+     * Initializes an empty grid.
+     * @param size The width of the (square) board
+     */
+    public TiledOccupancy(int size) {
+        this.size = size;
+        this.tilesPerSide = (size+TILE_WIDTH-1)/TILE_WIDTH;
+        this.tiles = new long[tilesPerSide*tilesPerSide][];
+    }
+
+    /**
+     * Initializes a grid that starts out the same as another, sharing its
+     * tiles until they change. The template must not change after this.
+     * @param template The grid to copy
+     */
+    public TiledOccupancy(TiledOccupancy template) {
+        this(template.size);
+        this.template = template;
+        this.owned = new boolean[tiles.length];
+        this.ownedTiles = new int[8];
+        System.arraycopy(template.tiles, 0, tiles, 0, tiles.length);
+    }
+
+    /**
+     * Goes back to the template's grid, dropping every change. Only the 
+     * tiles that changed are touched.
+     */
+    public void reset() {
+        if (template==null) return;
+        for (int i=0; i<ownedCount; i++) {
+            int t = ownedTiles[i];
+            tiles[t] = template.tiles[t];
+            owned[t] = false;
+        }
+        ownedCount = 0;
+    }
+
+    /**
+     * Gets every flag set in a cell.
+     * @param x The x coordinate, on the board
+     * @param y The y coordinate, on the board
+     * @return the cell's flags
+     */
+    public byte get(int x, int y) {
+        long[] tile = tiles[tile(x, y)];
+        if (tile==null) return 0;
+        int row = x&(TILE_WIDTH-1);
+        long bit = 1L<<(y&(TILE_WIDTH-1));
+        byte flags = 0;
+        for (int f=0; f<FLAG_COUNT; f++)
+            if ((tile[f*TILE_WIDTH+row]&bit)!=0) flags |= 1<<f;
+        return flags;
+    }
+
+    /**
+     * Determines whether a flag is set in a cell.
+     * @param x The x coordinate, on the board
+     * @param y The y coordinate, on the board
+     * @param flag One of the Environment's occupancy flags
+     * @return if it's set
+     */
+    public boolean has(int x, int y, byte flag) {
+        long[] tile = tiles[tile(x, y)];
+        if (tile==null) return false;
+        int word = Integer.numberOfTrailingZeros(flag)*TILE_WIDTH +
+                    (x&(TILE_WIDTH-1));
+        return (tile[word]&(1L<<(y&(TILE_WIDTH-1))))!=0;
+    }
+
+    /**
+     * Sets a flag in a cell.
+     * @param x The x coordinate, on the board
+     * @param y The y coordinate, on the board
+     * @param flag One of the Environment's occupancy flags
+     */
+    public void set(int x, int y, byte flag) {
+        long[] tile = writableTile(tile(x, y));
+        int word = Integer.numberOfTrailingZeros(flag)*TILE_WIDTH +
+                    (x&(TILE_WIDTH-1));
+        tile[word] |= 1L<<(y&(TILE_WIDTH-1));
+    }
+
+    /**
+     * Clears a flag in a cell.
+     * @param x The x coordinate, on the board
+     * @param y The y coordinate, on the board
+     * @param flag One of the Environment's occupancy flags
+     */
+    public void clear(int x, int y, byte flag) {
+        if (!has(x, y, flag)) return; //Nothing to do, so don't copy a tile
+        long[] tile = writableTile(tile(x, y));
+        int word = Integer.numberOfTrailingZeros(flag)*TILE_WIDTH +
+                    (x&(TILE_WIDTH-1));
+        tile[word] &= ~(1L<<(y&(TILE_WIDTH-1)));
+    }
+
+    /**
+     * Gets the number of tiles that have been allocated, by this grid or
+     * its template.
+     * @return the tile count
+     */
+    public int tileCount() {
+        int count = 0;
+        for (long[] tile : tiles) if (tile!=null) count++;
+        return count;
+    }
+
+    /**
+     * Gets the index of the tile a cell is in.
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @return the tile index
+     */
+    private int tile(int x, int y) {
+        return (x>>>TILE_BITS)*tilesPerSide + (y>>>TILE_BITS);
+    }
+
+    /**
+     * Gets a tile that's ours to change, allocating it if it's empty or
+     * copying it if it's the template's.
+     * @param t The tile index
+     * @return the tile
+     */
+    private long[] writableTile(int t) {
+        if (template==null) {
+            if (tiles[t]==null) tiles[t] = new long[TILE_LONGS];
+            return tiles[t];
+        }
+        if (!owned[t]) {
+            tiles[t] = tiles[t]==null ? new long[TILE_LONGS] : tiles[t].clone();
+            owned[t] = true;
+            if (ownedCount==ownedTiles.length)
+                ownedTiles = Arrays.copyOf(ownedTiles, 2*ownedCount);
+            ownedTiles[ownedCount++] = t;
+        }
+        return tiles[t];
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.*;
+
+/**
+ * The burgler's path through one episode, as cells (x*size + y) in a ring
+ * buffer of ints that's reused from episode to episode, so a step costs a
+ * store instead of an array. Only the latest cells are kept once an episode
+ * outgrows the ring, but every cell the episode has been in stays marked in
+ * a visited set, so asking whether the path went through a cell is one bit
+ * lookup however long the episode gets. The set is a bitset over the board,
+ * or a map of just the visited cells on large boards.
+ */
+public class Trajectory {
+    public static int MAX_RETAINED_CELLS = 1<<16;
+    private static int INITIAL_CAPACITY = 64;
+
+    private int[] cells = new int[INITIAL_CAPACITY]; //Ring, power of 2 long
+    private long length; //Cells added this episode, kept or not
+    private long[] visited; //Bit per board cell, unless large
+    private LongIntMap visitedMap; //Instead of visited, on large boards
+
+    /**
+     * Initializes an empty trajectory for a board.
+     * @param board The board the path is on
+     */
+    public Trajectory(Board board) {
+        long cellCount = (long)board.getSize()*board.getSize();
+        if (board.isLarge()) this.visitedMap = new LongIntMap(1024);
+        else this.visited = new long[(int)((cellCount+63)>>>6)];
+    }
+
+    /**
+     * Forgets the path, for a new episode. Only the bits that were set are
+     * cleared, unless the ring has wrapped and lost track of some of them.
+     */
+    public void clear() {
+        if (visitedMap!=null) visitedMap.clear();
+        else if (length>cells.length) Arrays.fill(visited, 0);
+        else for (int i=0; i<length; i++)
+            visited[cells[i]>>>6] &= ~(1L<<cells[i]);
+        length = 0;
+    }
+
+    /**
+     * Adds the next cell of the path, marking it visited.
+     * @param cell The cell, x*size + y
+     */
+    public void add(int cell) {
+        if (length==cells.length && cells.length<MAX_RETAINED_CELLS)
+            cells = Arrays.copyOf(cells, 2*cells.length); //Hasn't wrapped
+        cells[(int)length&(cells.length-1)] = cell;
+        length++;
+        if (visitedMap!=null) visitedMap.put(cell, 1);
+        else visited[cell>>>6] |= 1L<<cell;
+    }
+
+    /**
+     * Determines whether or not the path has been through a cell this
+     * episode, including parts of it that are no longer retained.
+     * @param cell The cell, x*size + y
+     * @return if the cell was visited
+     */
+    public boolean visited(int cell) {
+        if (visitedMap!=null) return visitedMap.get(cell, 0)!=0;
+        return (visited[cell>>>6]&(1L<<cell))!=0;
+    }
+
+    /**
+     * Gets the number of cells added this episode, including the start.
+     * @return the path length
+     */
+    public long length() {
+        return this.length;
+    }
+
+    /**
+     * Gets the number of the latest cells that are still retained.
+     * @return the count, at most MAX_RETAINED_CELLS
+     */
+    public int retained() {
+        return (int)Math.min(length, cells.length);
+    }
+
+    /**
+     * Gets one of the retained cells.
+     * @param i The index, from 0 for the oldest retained to retained()-1
+     * for the latest
+     * @return the cell, x*size + y
+     */
+    public int get(int i) {
+        if (i<0 || i>=retained()) throw new IndexOutOfBoundsException(i);
+        return cells[(int)(length-retained()+i)&(cells.length-1)];
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.*;
+import java.io.*;
+
+/**
+ * A board, environment and agent for workloads to share, with the agent
+ * already trained a little so its Q table isn't all ties.
+ */
+public class Fixture {
+    public static int WARM_UP_MOVES = 100000;
+    public static double ALPHA = 0.5;
+    public static double GAMMA = 0.9;
+
+    public Board board;
+    public Environment world;
+    public Agent agent;
+    public SplittableRandom r;
+    public PrintStream[] outs;
+
+    /**
+     * Parses the board and trains an agent on it.
+     * @param text The input file contents
+     */
+    public Fixture(String text) {
+        r = new SplittableRandom(42);
+        outs = new PrintStream[0];
+        board = new Board(new Scanner(text));
+        world = new Environment(board, r);
+        QTable q = new DenseQTable(board.getSize(),
+            Environment.NEIGHBOR_COUNT, Agent.INITIAL_Q);
+        agent = new Agent(world.getBurgler(), board.getSize(), ALPHA, GAMMA,
+            q);
+        for (int i=0; i<WARM_UP_MOVES; i++)
+            QLearn.runIteration(world, agent, r, "explore", outs);
+    }
+
+    /**
+     * Gets a fixed sequence of random moves to cycle through.
+     * @return 1024 moves
+     */
+    public int[] moves() {
+        int[] moves = new int[1024];
+        for (int i=0; i<moves.length; i++)
+            moves[i] = r.nextInt(Environment.NEIGHBOR_COUNT);
+        return moves;
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * Agent.giveFeedback, replaying step results recorded from an exploring
+ * agent.
+ */
+public class GiveFeedbackWorkload implements bench.Workload {
+    private Fixture f;
+    private long[] results;
+    private int i;
+
+    public void setup(String board, String option) {
+        f = new Fixture(board);
+        results = new long[1024];
+        for (int j=0; j<results.length; j++) {
+            if (f.world.hasTerm()) f.world.reset(f.r);
+            results[j] = f.world.step(f.agent.selectMove(f.r, "explore"));
+        }
+    }
+
+    public long run() {
+        long result = results[i++&1023];
+        f.agent.giveFeedback(result);
+        return result;
+    }
+}
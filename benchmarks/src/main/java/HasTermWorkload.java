@@ -0,0 +1,14 @@
+/**
+ * Environment.hasTerm.
+ */
+public class HasTermWorkload implements bench.Workload {
+    private Fixture f;
+
+    public void setup(String board, String option) {
+        f = new Fixture(board);
+    }
+
+    public long run() {
+        return f.world.hasTerm() ? 1 : 0;
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * Environment.makeMove, resetting the environment when the burgler is done.
+ */
+public class MakeMoveWorkload implements bench.Workload {
+    private Fixture f;
+    private int[] moves;
+    private int i;
+
+    public void setup(String board, String option) {
+        f = new Fixture(board);
+        moves = f.moves();
+    }
+
+    public long run() {
+        if (f.world.hasTerm()) f.world.reset(f.r);
+        Object[] fb = f.world.makeMove(moves[i++&1023]);
+        return fb==null ? 0 : (int) fb[0];
+    }
+}
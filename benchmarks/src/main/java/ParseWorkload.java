@@ -0,0 +1,17 @@
+import java.util.*;
+
+/**
+ * Building a fresh Environment from the input file contents, the way
+ * episodes used to be reset.
+ */
+public class ParseWorkload implements bench.Workload {
+    private String text;
+
+    public void setup(String board, String option) {
+        text = board;
+    }
+
+    public long run() {
+        return new Environment(new Scanner(text)).getBurglerCell();
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * One QLearn.runIteration in explore mode: select, step, learn.
+ */
+public class RunIterationWorkload implements bench.Workload {
+    private Fixture f;
+
+    public void setup(String board, String option) {
+        f = new Fixture(board);
+    }
+
+    public long run() {
+        QLearn.runIteration(f.world, f.agent, f.r, "explore", f.outs);
+        return f.world.getScore();
+    }
+}
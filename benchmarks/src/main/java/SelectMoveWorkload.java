@@ -0,0 +1,16 @@
+/**
+ * Agent.selectMove with the option as the selection type, eg greedy.
+ */
+public class SelectMoveWorkload implements bench.Workload {
+    private Fixture f;
+    private String type;
+
+    public void setup(String board, String option) {
+        f = new Fixture(board);
+        type = option;
+    }
+
+    public long run() {
+        return f.agent.selectMove(f.r, type);
+    }
+}
@@ -0,0 +1,18 @@
+/**
+ * Environment.step, the primitive version of makeMove.
+ */
+public class StepWorkload implements bench.Workload {
+    private Fixture f;
+    private int[] moves;
+    private int i;
+
+    public void setup(String board, String option) {
+        f = new Fixture(board);
+        moves = f.moves();
+    }
+
+    public long run() {
+        if (f.world.hasTerm()) f.world.reset(f.r);
+        return f.world.step(moves[i++&1023]);
+    }
+}
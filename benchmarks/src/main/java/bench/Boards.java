@@ -0,0 +1,77 @@
+package bench;
+
+import java.util.*;
+
+/**
+ * Input files for the benchmarks. "small" is the example input.txt; a number
+ * is a generated board of that width, crowded with ponies and obstructions.
+ */
+public class Boards {
+    public static String SMALL =
+        "10 1 6\n8 6\n3 3 4 5 5 4 6 4 8 4 4 7\n-1 -1\n3 7\n";
+    public static double PONY_SHARE = 0.02;
+    public static double OBSTRUCTION_SHARE = 0.10;
+    public static double TROLL_SHARE = 0.001;
+
+    /**
+     * Gets the input file contents of a named board.
+     * @param name "small" or a board width
+     * @return the input file contents
+     */
+    public static String text(String name) {
+        if (name.equals("small")) return SMALL;
+        return generate(Integer.parseInt(name), new Random(42));
+    }
+
+    /**
+     * Generates a board with everything on its own cell, in the README's
+     * input file format.
+     * @param size The width of the board
+     * @param r The Random object to place things with
+     * @return the input file contents
+     */
+    public static String generate(int size, Random r) {
+        int cells = size*size;
+        int ponies = Math.max(1, (int)(cells*PONY_SHARE));
+        int obstructions = (int)(cells*OBSTRUCTION_SHARE);
+        int trolls = Math.max(1, (int)(cells*TROLL_SHARE));
+
+        //Shuffle just enough cells to give each thing its own
+        int[] order = new int[cells];
+        for (int i=0; i<cells; i++) order[i] = i;
+        int needed = 1+ponies+obstructions+trolls;
+        for (int i=0; i<needed; i++) {
+            int j = i+r.nextInt(cells-i);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(size).append(' ').append(trolls).append(' ')
+          .append(ponies).append('\n');
+        appendPairs(sb, order, size, 0, 1);
+        appendPairs(sb, order, size, 1, ponies);
+        if (obstructions==0) sb.append("-1 -1\n");
+        else appendPairs(sb, order, size, 1+ponies, obstructions);
+        appendPairs(sb, order, size, 1+ponies+obstructions, trolls);
+        return sb.toString();
+    }
+
+    /**
+     * Appends a line of x y pairs for a run of shuffled cells.
+     * @param sb The builder to append to
+     * @param order The shuffled cells
+     * @param size The width of the board
+     * @param from The first cell to use
+     * @param count The number of cells to use
+     */
+    private static void appendPairs(StringBuilder sb, int[] order, int size,
+                        int from, int count) {
+        for (int i=from; i<from+count; i++) {
+            if (i>from) sb.append(' ');
+            sb.append(order[i]/size).append(' ').append(order[i]%size);
+        }
+        sb.append('\n');
+    }
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Throughput of each training hot path on each board. Run with -prof gc to
+ * also see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TrainingBenchmark {
+
+    @Param({"small", "100", "1000"})
+    public String board;
+
+    //Workload class name, then an optional option after a colon
+    @Param({
+        "MakeMoveWorkload",
+        "StepWorkload",
+        "HasTermWorkload",
+        "ParseWorkload",
+        "SelectMoveWorkload:greedy",
+        "SelectMoveWorkload:explore",
+        "GiveFeedbackWorkload",
+        "RunIterationWorkload"
+    })
+    public String workload;
+
+    private Workload w;
+
+    @Setup(Level.Trial)
+    public void setup() throws ReflectiveOperationException {
+        String[] parts = workload.split(":", 2);
+        w = (Workload) Class.forName(parts[0])
+                            .getDeclaredConstructor().newInstance();
+        w.setup(Boards.text(board), parts.length>1 ? parts[1] : null);
+    }
+
+    @Benchmark
+    public long run() {
+        return w.run();
+    }
+}
@@ -0,0 +1,23 @@
+package bench;
+
+/**
+ * One operation on the trainer to be timed. JMH can't generate code for
+ * classes in the default package, where the trainer lives, so each workload
+ * is written in the default package and the benchmarks call it through this
+ * interface.
+ */
+public interface Workload {
+
+    /**
+     * Builds everything the operation needs. Not timed.
+     * @param board The input file contents of the board to use
+     * @param option A workload specific option, or null
+     */
+    void setup(String board, String option);
+
+    /**
+     * Runs the operation once.
+     * @return something derived from the result, so it isn't optimized away
+     */
+    long run();
+}